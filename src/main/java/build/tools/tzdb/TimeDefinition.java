@@ -112,4 +112,27 @@ public enum TimeDefinition {
         }
     }
 
+    /**
+     * Converts the specified local date-time, as a local epoch second, to the
+     * epoch second of the instant.
+     * <p>
+     * This is the same as {@link #createDateTime} followed by converting the
+     * result to an epoch second using the wall offset, without creating objects.
+     *
+     * @param localEpochSecond  the local date-time, as seconds from 1970-01-01T00:00
+     * @param standardOffsetSecs  the standard offset in seconds
+     * @param wallOffsetSecs  the wall offset in seconds
+     * @return the epoch second
+     */
+    public long toEpochSecond(long localEpochSecond, int standardOffsetSecs, int wallOffsetSecs) {
+        switch (this) {
+            case UTC:
+                return localEpochSecond;
+            case STANDARD:
+                return localEpochSecond - standardOffsetSecs;
+            default:  // WALL
+                return localEpochSecond - wallOffsetSecs;
+        }
+    }
+
 }
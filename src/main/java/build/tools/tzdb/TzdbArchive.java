@@ -0,0 +1,181 @@
+/*
+ * Copyright 2015 Red Hat, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package build.tools.tzdb;
+
+import build.tools.tzdb.support.com.redhat.openjdk.support7.AutoCloseableUtils;
+import build.tools.tzdb.support.com.redhat.openjdk.support7.Path;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Minimal reader for gzip-compressed tar archives, as published by IANA
+ * for the time zone database ({@code tzdataYYYYx.tar.gz}).
+ * <p>
+ * The archive is streamed once and only the regular files with the requested
+ * names are kept in memory, so nothing is extracted to disk. Only the parts of
+ * the ustar format used by tzdata releases are supported: entry names are taken
+ * from the name and prefix fields, and a leading {@code ./} is ignored.
+ */
+final class TzdbArchive {
+
+    /** The size of a tar block. */
+    private static final int BLOCK_SIZE = 512;
+
+    private TzdbArchive() {
+    }
+
+    /**
+     * Reads the requested entries from an archive.
+     *
+     * @param archive  the gzip-compressed tar archive, not null
+     * @param names  the names of the entries to read, not null
+     * @return the contents of the entries found, keyed by name, not null
+     * @throws IOException if the archive cannot be read or is malformed
+     */
+    static Map<String, byte[]> readEntries(Path archive, Collection<String> names) throws IOException {
+        Map<String, byte[]> entries = new HashMap<String, byte[]>();
+        InputStream in = null;
+        try {
+            in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(archive.getFile()), 65536));
+            byte[] header = new byte[BLOCK_SIZE];
+            while (readBlock(in, header)) {
+                if (isZeroBlock(header)) {
+                    break;  // end of archive
+                }
+                String name = parseName(header);
+                long size = parseOctal(header, 124, 12);
+                char type = (char) header[156];
+                long padded = (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+                if ((type == '0' || type == '\0') && names.contains(name)) {
+                    if (size > Integer.MAX_VALUE) {
+                        throw new IOException("Archive entry too large: " + name);
+                    }
+                    byte[] data = new byte[(int) size];
+                    readFully(in, data, data.length);
+                    entries.put(name, data);
+                    skipFully(in, padded - size);
+                } else {
+                    skipFully(in, padded);
+                }
+            }
+            return entries;
+        } finally {
+            AutoCloseableUtils.closeQuietly(in);
+        }
+    }
+
+    private static String parseName(byte[] header) {
+        String name = parseString(header, 0, 100);
+        if (header[257] == 'u' && header[258] == 's' && header[259] == 't' &&
+                header[260] == 'a' && header[261] == 'r') {
+            String prefix = parseString(header, 345, 155);
+            if (prefix.length() > 0) {
+                name = prefix + "/" + name;
+            }
+        }
+        while (name.startsWith("./")) {
+            name = name.substring(2);
+        }
+        return name;
+    }
+
+    private static String parseString(byte[] header, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        char[] chars = new char[end - offset];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (header[offset + i] & 0xff);
+        }
+        return new String(chars);
+    }
+
+    private static long parseOctal(byte[] header, int offset, int length) throws IOException {
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = header[i];
+            if (b == 0 || b == ' ') {
+                if (value != 0) {
+                    break;  // trailing terminator
+                }
+                continue;  // leading padding
+            }
+            if (b < '0' || b > '7') {
+                throw new IOException("Invalid tar header, bad octal number");
+            }
+            value = (value << 3) + (b - '0');
+        }
+        return value;
+    }
+
+    private static boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean readBlock(InputStream in, byte[] block) throws IOException {
+        int off = 0;
+        while (off < block.length) {
+            int res = in.read(block, off, block.length - off);
+            if (res < 0) {
+                if (off == 0) {
+                    return false;  // archive without the end-of-archive blocks
+                }
+                throw new EOFException("Truncated tar header");
+            }
+            off += res;
+        }
+        return true;
+    }
+
+    private static void readFully(InputStream in, byte[] data, int length) throws IOException {
+        int off = 0;
+        while (off < length) {
+            int res = in.read(data, off, length - off);
+            if (res < 0) {
+                throw new EOFException("Truncated tar entry");
+            }
+            off += res;
+        }
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        byte[] buf = new byte[BLOCK_SIZE];
+        while (count > 0) {
+            int res = in.read(buf, 0, (int) Math.min(buf.length, count));
+            if (res < 0) {
+                throw new EOFException("Truncated tar entry");
+            }
+            count -= res;
+        }
+    }
+}
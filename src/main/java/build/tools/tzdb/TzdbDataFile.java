@@ -0,0 +1,321 @@
+/*
+ * Copyright 2015 Red Hat, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package build.tools.tzdb;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeSet;
+
+/**
+ * The contents of a compiled {@code tzdb.dat} file.
+ * <p>
+ * The file holds one or more TZDB versions, which share a table of region IDs
+ * and a table of serialized {@code ZoneRules}, each distinct rules only stored
+ * once. Each version then has a table linking its regions to their rules,
+ * and after all of these each version has a table of aliases, in the same
+ * order, as read by the JDK. The JDK uses the last version.
+ * <p>
+ * The tables are kept in the indexed form written to the file, so the file
+ * is fully described by this class.
+ *
+ * <h4>Implementation notes</h4>
+ * This class is immutable and thread-safe.
+ */
+final class TzdbDataFile {
+
+    /** The format version of the file. */
+    private static final int FORMAT_VERSION = 1;
+    /** The group written after the format version. */
+    private static final String GROUP = "TZDB";
+    /** The initial size of the output buffer, enough for a single version, about 100KB. */
+    private static final int OUTPUT_BUFFER_SIZE = 128 * 1024;
+
+    /** The TZDB versions, the last one is the current version. */
+    private final List<String> versions;
+    /** The region IDs. */
+    private final List<String> regions;
+    /** The serialized rules. */
+    private final List<byte[]> rules;
+    /** For each version, the pairs of region index and rules index. */
+    private final List<int[]> versionRegions;
+    /** For each version, the pairs of alias region index and target region index. */
+    private final List<int[]> versionAliases;
+
+    /**
+     * Creates the contents of a file from its tables.
+     *
+     * @param versions  the TZDB versions, not null
+     * @param regions  the region IDs, not null
+     * @param rules  the serialized rules, not null
+     * @param versionRegions  for each version, the pairs of region index and rules index, not null
+     * @param versionAliases  for each version, the pairs of alias region index and target region index, not null
+     */
+    TzdbDataFile(List<String> versions, List<String> regions, List<byte[]> rules,
+            List<int[]> versionRegions, List<int[]> versionAliases) {
+        this.versions = versions;
+        this.regions = regions;
+        this.rules = rules;
+        this.versionRegions = versionRegions;
+        this.versionAliases = versionAliases;
+    }
+
+    /**
+     * Creates the contents of a file holding compiled versions.
+     * <p>
+     * The region IDs of all the versions are sorted, and identical serialized
+     * rules are stored once, shared by all the regions and versions using them.
+     *
+     * @param versions  the TZDB versions, the last one is the current version, not null
+     * @param versionRules  for each version, the serialized rules keyed by region ID, not null
+     * @param versionAliases  for each version, the target region IDs keyed by alias region ID,
+     *  in the order to write, not null
+     * @return the file contents, not null
+     * @throws IllegalArgumentException if an alias region is not in a version,
+     *  or the tables or rules are too large for the file format
+     */
+    static TzdbDataFile of(List<String> versions, List<SortedMap<String, byte[]>> versionRules,
+            List<Map<String, String>> versionAliases) {
+        TreeSet<String> regionSet = new TreeSet<String>();
+        for (SortedMap<String, byte[]> regionRules : versionRules) {
+            regionSet.addAll(regionRules.keySet());
+        }
+        List<String> regions = new ArrayList<String>(regionSet);
+        Map<String, Integer> regionIndex = new HashMap<String, Integer>(regions.size() * 2);
+        for (int i = 0; i < regions.size(); i++) {
+            regionIndex.put(regions.get(i), i);
+        }
+        // a byte buffer equals another with the same contents
+        Map<ByteBuffer, Integer> rulesIndex = new HashMap<ByteBuffer, Integer>();
+        List<byte[]> rules = new ArrayList<byte[]>();
+        List<int[]> versionRegions = new ArrayList<int[]>(versionRules.size());
+        for (SortedMap<String, byte[]> regionRules : versionRules) {
+            int[] pairs = new int[regionRules.size() * 2];
+            int i = 0;
+            for (Map.Entry<String, byte[]> entry : regionRules.entrySet()) {
+                ByteBuffer key = ByteBuffer.wrap(entry.getValue());
+                Integer index = rulesIndex.get(key);
+                if (index == null) {
+                    if (entry.getValue().length > Short.MAX_VALUE) {
+                        throw new IllegalArgumentException("Rules of '" + entry.getKey() +
+                                "' too large for the file format: " + entry.getValue().length + " bytes");
+                    }
+                    index = rules.size();
+                    rulesIndex.put(key, index);
+                    rules.add(entry.getValue());
+                }
+                pairs[i++] = regionIndex.get(entry.getKey());
+                pairs[i++] = index;
+            }
+            versionRegions.add(pairs);
+        }
+        List<int[]> aliasPairs = new ArrayList<int[]>(versionAliases.size());
+        for (Map<String, String> aliases : versionAliases) {
+            int[] pairs = new int[aliases.size() * 2];
+            int i = 0;
+            for (Map.Entry<String, String> entry : aliases.entrySet()) {
+                Integer aliasIndex = regionIndex.get(entry.getKey());
+                Integer realIndex = regionIndex.get(entry.getValue());
+                if (aliasIndex == null || realIndex == null) {
+                    throw new IllegalArgumentException("Alias '" + entry.getKey() +
+                            "' links to unknown zone '" + entry.getValue() + "'");
+                }
+                pairs[i++] = aliasIndex;
+                pairs[i++] = realIndex;
+            }
+            aliasPairs.add(pairs);
+        }
+        // the JDK reads the counts as signed shorts
+        if (regions.size() > Short.MAX_VALUE || rules.size() > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many regions or rules for the file format: " +
+                    regions.size() + " regions, " + rules.size() + " rules");
+        }
+        return new TzdbDataFile(new ArrayList<String>(versions), regions, rules, versionRegions, aliasPairs);
+    }
+
+    /**
+     * Reads the contents of a file.
+     *
+     * @param bytes  the file contents, not null
+     * @return the file contents, not null
+     * @throws IOException if the contents are not a valid file
+     */
+    static TzdbDataFile read(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (in.readByte() != FORMAT_VERSION || !GROUP.equals(in.readUTF())) {
+            throw new IOException("Unknown tzdb.dat format");
+        }
+        int versionCount = in.readShort();
+        List<String> versions = new ArrayList<String>(versionCount);
+        for (int i = 0; i < versionCount; i++) {
+            versions.add(in.readUTF());
+        }
+        int regionCount = in.readShort();
+        List<String> regions = new ArrayList<String>(regionCount);
+        for (int i = 0; i < regionCount; i++) {
+            regions.add(in.readUTF());
+        }
+        int ruleCount = in.readShort();
+        List<byte[]> rules = new ArrayList<byte[]>(ruleCount);
+        for (int i = 0; i < ruleCount; i++) {
+            byte[] blob = new byte[in.readShort()];
+            in.readFully(blob);
+            rules.add(blob);
+        }
+        List<int[]> versionRegions = new ArrayList<int[]>(versionCount);
+        for (int i = 0; i < versionCount; i++) {
+            versionRegions.add(readPairs(in, regionCount, ruleCount));
+        }
+        List<int[]> versionAliases = new ArrayList<int[]>(versionCount);
+        for (int i = 0; i < versionCount; i++) {
+            versionAliases.add(readPairs(in, regionCount, regionCount));
+        }
+        if (in.read() != -1) {
+            throw new IOException("Unexpected data after the alias tables");
+        }
+        return new TzdbDataFile(versions, regions, rules, versionRegions, versionAliases);
+    }
+
+    private static int[] readPairs(DataInputStream in, int firstLimit, int secondLimit) throws IOException {
+        int[] pairs = new int[in.readShort() * 2];
+        for (int i = 0; i < pairs.length; i += 2) {
+            pairs[i] = in.readShort();
+            pairs[i + 1] = in.readUnsignedShort();
+            if (pairs[i] < 0 || pairs[i] >= firstLimit || pairs[i + 1] >= secondLimit) {
+                throw new IOException("Invalid index in tzdb.dat table");
+            }
+        }
+        return pairs;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the TZDB versions.
+     *
+     * @return the versions, the last one is the current version, not null
+     */
+    List<String> getVersions() {
+        return Collections.unmodifiableList(versions);
+    }
+
+    /**
+     * Gets the region IDs.
+     *
+     * @return the region IDs, indexed by region index, not null
+     */
+    List<String> getRegions() {
+        return Collections.unmodifiableList(regions);
+    }
+
+    /**
+     * Gets the serialized rules, which must not be modified.
+     *
+     * @return the serialized rules, indexed by rules index, not null
+     */
+    List<byte[]> getRules() {
+        return Collections.unmodifiableList(rules);
+    }
+
+    /**
+     * Gets the number of distinct serialized rules.
+     *
+     * @return the number of rules
+     */
+    int getRulesCount() {
+        return rules.size();
+    }
+
+    /**
+     * Gets the table linking the regions of a version to their rules.
+     *
+     * @param versionIndex  the index of the version
+     * @return the pairs of region index and rules index, not null
+     */
+    int[] getVersionRegions(int versionIndex) {
+        return versionRegions.get(versionIndex).clone();
+    }
+
+    /**
+     * Gets the table of aliases of a version.
+     *
+     * @param versionIndex  the index of the version
+     * @return the pairs of alias region index and target region index, not null
+     */
+    int[] getAliases(int versionIndex) {
+        return versionAliases.get(versionIndex).clone();
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Writes the contents to a byte array.
+     *
+     * @return the file contents, not null
+     * @throws IOException if an error occurs
+     */
+    byte[] toByteArray() throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(OUTPUT_BUFFER_SIZE * versions.size());
+        DataOutputStream out = new DataOutputStream(buffer);
+        // file version
+        out.writeByte(FORMAT_VERSION);
+        // group
+        out.writeUTF(GROUP);
+        // versions
+        out.writeShort(versions.size());
+        for (String version : versions) {
+            out.writeUTF(version);
+        }
+        // regions
+        out.writeShort(regions.size());
+        for (String region : regions) {
+            out.writeUTF(region);
+        }
+        // rules
+        out.writeShort(rules.size());
+        for (byte[] bytes : rules) {
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        }
+        // link version-region-rules
+        for (int[] pairs : versionRegions) {
+            writePairs(out, pairs);
+        }
+        // alias-region, for each version
+        for (int[] pairs : versionAliases) {
+            writePairs(out, pairs);
+        }
+        out.close();
+        return buffer.toByteArray();
+    }
+
+    private static void writePairs(DataOutputStream out, int[] pairs) throws IOException {
+        out.writeShort(pairs.length / 2);
+        for (int value : pairs) {
+            out.writeShort(value);
+        }
+    }
+}
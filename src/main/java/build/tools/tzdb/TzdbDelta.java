@@ -0,0 +1,442 @@
+/*
+ * Copyright 2015 Red Hat, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package build.tools.tzdb;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Delta between two compiled {@code tzdb.dat} files, from which the newer
+ * file can be rebuilt byte-for-byte given the older one.
+ * <p>
+ * The delta follows the tables of {@link TzdbDataFile}:
+ * <ul>
+ * <li>the versions of the new file
+ * <li>the region IDs, as runs copied from the old list, skipped or added
+ * <li>the serialized rules, each either the index of identical old rules or the new bytes
+ * <li>for each version, its table linking regions to rules, as runs copied from,
+ *   skipped in or added to the matching old table translated to the new indices
+ * <li>for each version, its alias table, in the same way
+ * </ul>
+ * The old table matching a new version is the table of the same version,
+ * or of the current version if the old file does not have it. The SHA-1 hashes
+ * of both files are recorded, so a delta is only applied to the file it was
+ * created from and always rebuilds the same file.
+ */
+final class TzdbDelta {
+
+    /** The format version of the delta. */
+    private static final int FORMAT_VERSION = 2;
+    /** The group written after the format version. */
+    private static final String GROUP = "TZDBDELTA";
+    /** The length of a SHA-1 hash. */
+    private static final int HASH_LENGTH = 20;
+    /** The rules index marking rules not in the old file, followed by their bytes. */
+    private static final int NEW_RULES = 0xFFFF;
+    /** Run copying entries from the old list. */
+    private static final int COPY = 0;
+    /** Run skipping entries of the old list. */
+    private static final int SKIP = 1;
+    /** Run adding entries, followed by the entries. */
+    private static final int ADD = 2;
+
+    private TzdbDelta() {
+    }
+
+    /**
+     * Creates the delta between two files.
+     *
+     * @param oldBytes  the contents of the old file, not null
+     * @param newBytes  the contents of the new file, not null
+     * @return the delta, not null
+     * @throws IOException if either file is invalid, or the new file cannot be rebuilt from its tables
+     */
+    static byte[] create(byte[] oldBytes, byte[] newBytes) throws IOException {
+        TzdbDataFile oldFile = TzdbDataFile.read(oldBytes);
+        TzdbDataFile newFile = TzdbDataFile.read(newBytes);
+        if (!Arrays.equals(newFile.toByteArray(), newBytes)) {
+            throw new IOException("New tzdb.dat is not in canonical form");
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(4096);
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeByte(FORMAT_VERSION);
+        out.writeUTF(GROUP);
+        out.write(sha1(oldBytes));
+        out.write(sha1(newBytes));
+        // versions
+        List<String> versions = newFile.getVersions();
+        out.writeShort(versions.size());
+        for (String version : versions) {
+            out.writeUTF(version);
+        }
+        // regions
+        List<String> oldRegions = oldFile.getRegions();
+        List<String> newRegions = newFile.getRegions();
+        writeRegionRuns(out, oldRegions, newRegions);
+        int[] regionMap = indexMap(oldRegions, newRegions);
+        // rules
+        Map<ByteBuffer, Integer> oldRulesIndex = new HashMap<ByteBuffer, Integer>();
+        List<byte[]> oldRules = oldFile.getRules();
+        for (int i = oldRules.size() - 1; i >= 0; i--) {
+            oldRulesIndex.put(ByteBuffer.wrap(oldRules.get(i)), i);  // first one wins
+        }
+        List<byte[]> newRules = newFile.getRules();
+        int[] rulesMap = new int[oldRules.size()];
+        Arrays.fill(rulesMap, -1);
+        out.writeShort(newRules.size());
+        for (int i = 0; i < newRules.size(); i++) {
+            byte[] bytes = newRules.get(i);
+            Integer oldIndex = oldRulesIndex.get(ByteBuffer.wrap(bytes));
+            if (oldIndex != null) {
+                out.writeShort(oldIndex);
+                if (rulesMap[oldIndex] == -1) {
+                    rulesMap[oldIndex] = i;
+                }
+            } else {
+                out.writeShort(NEW_RULES);
+                out.writeShort(bytes.length);
+                out.write(bytes);
+            }
+        }
+        // link version-region-rules
+        for (int i = 0; i < versions.size(); i++) {
+            int[] base = translate(oldFile.getVersionRegions(baseVersion(oldFile, versions.get(i))), regionMap, rulesMap);
+            writePairRuns(out, base, newFile.getVersionRegions(i));
+        }
+        // alias-region, for each version
+        for (int i = 0; i < versions.size(); i++) {
+            int[] base = translate(oldFile.getAliases(baseVersion(oldFile, versions.get(i))), regionMap, regionMap);
+            writePairRuns(out, base, newFile.getAliases(i));
+        }
+        out.close();
+        byte[] delta = buffer.toByteArray();
+        if (!Arrays.equals(apply(oldBytes, delta), newBytes)) {
+            throw new IllegalStateException("Delta does not rebuild the new tzdb.dat");
+        }
+        return delta;
+    }
+
+    /**
+     * Applies a delta to a file.
+     *
+     * @param oldBytes  the contents of the old file, not null
+     * @param delta  the delta created from the old file, not null
+     * @return the contents of the new file, not null
+     * @throws IOException if the delta is invalid or was created from another file
+     */
+    static byte[] apply(byte[] oldBytes, byte[] delta) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(delta));
+        if (in.readByte() != FORMAT_VERSION || !GROUP.equals(in.readUTF())) {
+            throw new IOException("Unknown tzdb.dat delta format");
+        }
+        byte[] oldHash = new byte[HASH_LENGTH];
+        byte[] newHash = new byte[HASH_LENGTH];
+        in.readFully(oldHash);
+        in.readFully(newHash);
+        if (!Arrays.equals(oldHash, sha1(oldBytes))) {
+            throw new IOException("Delta was not created from this tzdb.dat");
+        }
+        TzdbDataFile oldFile = TzdbDataFile.read(oldBytes);
+        // versions
+        int versionCount = in.readShort();
+        List<String> versions = new ArrayList<String>(versionCount);
+        for (int i = 0; i < versionCount; i++) {
+            versions.add(in.readUTF());
+        }
+        // regions
+        List<String> oldRegions = oldFile.getRegions();
+        List<String> regions = readRegionRuns(in, oldRegions);
+        int[] regionMap = indexMap(oldRegions, regions);
+        // rules
+        List<byte[]> oldRules = oldFile.getRules();
+        int[] rulesMap = new int[oldRules.size()];
+        Arrays.fill(rulesMap, -1);
+        int ruleCount = in.readUnsignedShort();
+        List<byte[]> rules = new ArrayList<byte[]>(ruleCount);
+        for (int i = 0; i < ruleCount; i++) {
+            int oldIndex = in.readUnsignedShort();
+            if (oldIndex == NEW_RULES) {
+                byte[] bytes = new byte[in.readShort()];
+                in.readFully(bytes);
+                rules.add(bytes);
+            } else {
+                rules.add(oldRules.get(oldIndex));
+                if (rulesMap[oldIndex] == -1) {
+                    rulesMap[oldIndex] = i;
+                }
+            }
+        }
+        // link version-region-rules
+        List<int[]> versionRegions = new ArrayList<int[]>(versionCount);
+        for (String version : versions) {
+            int[] base = translate(oldFile.getVersionRegions(baseVersion(oldFile, version)), regionMap, rulesMap);
+            versionRegions.add(readPairRuns(in, base));
+        }
+        // alias-region
+        // alias-region, for each version
+        List<int[]> versionAliases = new ArrayList<int[]>(versionCount);
+        for (String version : versions) {
+            int[] base = translate(oldFile.getAliases(baseVersion(oldFile, version)), regionMap, regionMap);
+            versionAliases.add(readPairRuns(in, base));
+        }
+        if (in.read() != -1) {
+            throw new IOException("Unexpected data after the delta");
+        }
+        byte[] newBytes = new TzdbDataFile(versions, regions, rules, versionRegions, versionAliases).toByteArray();
+        if (!Arrays.equals(newHash, sha1(newBytes))) {
+            throw new IOException("Delta did not rebuild the expected tzdb.dat");
+        }
+        return newBytes;
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Finds the old version whose table is the base of the table of a new version.
+     */
+    private static int baseVersion(TzdbDataFile oldFile, String version) {
+        List<String> oldVersions = oldFile.getVersions();
+        int index = oldVersions.indexOf(version);
+        return (index >= 0 ? index : oldVersions.size() - 1);
+    }
+
+    /**
+     * Maps the old region indices to the new ones, -1 if removed.
+     */
+    private static int[] indexMap(List<String> oldRegions, List<String> newRegions) {
+        Map<String, Integer> newIndex = new HashMap<String, Integer>(newRegions.size() * 2);
+        for (int i = newRegions.size() - 1; i >= 0; i--) {
+            newIndex.put(newRegions.get(i), i);
+        }
+        int[] map = new int[oldRegions.size()];
+        for (int i = 0; i < map.length; i++) {
+            Integer index = newIndex.get(oldRegions.get(i));
+            map[i] = (index != null ? index : -1);
+        }
+        return map;
+    }
+
+    /**
+     * Translates an old table to the new indices, removing the pairs of removed regions.
+     * The second index is -1 if the old value is not in the new file.
+     */
+    private static int[] translate(int[] pairs, int[] firstMap, int[] secondMap) {
+        int[] translated = new int[pairs.length];
+        int count = 0;
+        for (int i = 0; i < pairs.length; i += 2) {
+            int first = firstMap[pairs[i]];
+            if (first != -1) {
+                translated[count++] = first;
+                translated[count++] = secondMap[pairs[i + 1]];
+            }
+        }
+        return Arrays.copyOf(translated, count);
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Writes a list of region IDs as runs over the old list.
+     * <p>
+     * The lists are merged assuming both are sorted, which they are when written
+     * by the compiler. The runs are always correct, only larger, if not.
+     */
+    private static void writeRegionRuns(DataOutputStream out, List<String> base, List<String> target)
+            throws IOException {
+        Runs runs = new Runs();
+        List<String> added = new ArrayList<String>();
+        int i = 0;
+        int j = 0;
+        while (i < base.size() || j < target.size()) {
+            if (i < base.size() && j < target.size() && base.get(i).equals(target.get(j))) {
+                runs.add(COPY);
+                i++;
+                j++;
+            } else if (j < target.size() && (i == base.size() || target.get(j).compareTo(base.get(i)) < 0)) {
+                runs.add(ADD);
+                added.add(target.get(j++));
+            } else {
+                runs.add(SKIP);
+                i++;
+            }
+        }
+        int addIndex = 0;
+        out.writeShort(runs.size());
+        for (int r = 0; r < runs.size(); r++) {
+            out.writeByte(runs.type(r));
+            out.writeShort(runs.length(r));
+            if (runs.type(r) == ADD) {
+                for (int k = 0; k < runs.length(r); k++) {
+                    out.writeUTF(added.get(addIndex++));
+                }
+            }
+        }
+    }
+
+    private static List<String> readRegionRuns(DataInputStream in, List<String> base) throws IOException {
+        List<String> target = new ArrayList<String>(base.size());
+        int i = 0;
+        int runCount = in.readUnsignedShort();
+        for (int r = 0; r < runCount; r++) {
+            int type = in.readByte();
+            int length = in.readUnsignedShort();
+            if (type == ADD) {
+                for (int k = 0; k < length; k++) {
+                    target.add(in.readUTF());
+                }
+            } else {
+                if (i + length > base.size()) {
+                    throw new IOException("Invalid region run in tzdb.dat delta");
+                }
+                if (type == COPY) {
+                    target.addAll(base.subList(i, i + length));
+                }
+                i += length;
+            }
+        }
+        return target;
+    }
+
+    /**
+     * Writes a table of pairs as runs over the old table.
+     * <p>
+     * The tables are merged by their first index, as written by the compiler.
+     * The runs are always correct, only larger, if not.
+     */
+    private static void writePairRuns(DataOutputStream out, int[] base, int[] target) throws IOException {
+        Runs runs = new Runs();
+        int[] added = new int[target.length];
+        int addCount = 0;
+        int i = 0;
+        int j = 0;
+        while (i < base.length || j < target.length) {
+            if (i < base.length && j < target.length && base[i] == target[j] && base[i + 1] == target[j + 1]) {
+                runs.add(COPY);
+                i += 2;
+                j += 2;
+            } else if (j < target.length && (i == base.length || target[j] <= base[i])) {
+                if (i < base.length && target[j] == base[i]) {
+                    runs.add(SKIP);  // replaced
+                    i += 2;
+                }
+                runs.add(ADD);
+                added[addCount++] = target[j];
+                added[addCount++] = target[j + 1];
+                j += 2;
+            } else {
+                runs.add(SKIP);
+                i += 2;
+            }
+        }
+        int addIndex = 0;
+        out.writeShort(runs.size());
+        for (int r = 0; r < runs.size(); r++) {
+            out.writeByte(runs.type(r));
+            out.writeShort(runs.length(r));
+            if (runs.type(r) == ADD) {
+                for (int k = 0; k < runs.length(r) * 2; k++) {
+                    out.writeShort(added[addIndex++]);
+                }
+            }
+        }
+    }
+
+    private static int[] readPairRuns(DataInputStream in, int[] base) throws IOException {
+        int[] target = new int[base.length];
+        int count = 0;
+        int i = 0;
+        int runCount = in.readUnsignedShort();
+        for (int r = 0; r < runCount; r++) {
+            int type = in.readByte();
+            int length = in.readUnsignedShort() * 2;
+            if (type != ADD && i + length > base.length) {
+                throw new IOException("Invalid table run in tzdb.dat delta");
+            }
+            if (type != SKIP && count + length > target.length) {
+                target = Arrays.copyOf(target, Math.max(target.length * 2, count + length));
+            }
+            if (type == ADD) {
+                for (int k = 0; k < length; k += 2) {
+                    target[count++] = in.readShort();
+                    target[count++] = in.readUnsignedShort();
+                }
+            } else {
+                if (type == COPY) {
+                    System.arraycopy(base, i, target, count, length);
+                    count += length;
+                }
+                i += length;
+            }
+        }
+        int[] result = Arrays.copyOf(target, count);
+        for (int k = 1; k < result.length; k += 2) {
+            if (result[k] == -1) {
+                throw new IOException("Delta copies a table entry of removed rules");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Runs of entries of the same type, built one entry at a time.
+     */
+    private static final class Runs {
+        /** The types and lengths of the runs. */
+        private final List<int[]> runs = new ArrayList<int[]>();
+
+        void add(int type) {
+            int[] last = (runs.isEmpty() ? null : runs.get(runs.size() - 1));
+            if (last != null && last[0] == type && last[1] < 0xFFFF) {
+                last[1]++;
+            } else {
+                runs.add(new int[] {type, 1});
+            }
+        }
+
+        int size() {
+            return runs.size();
+        }
+
+        int type(int index) {
+            return runs.get(index)[0];
+        }
+
+        int length(int index) {
+            return runs.get(index)[1];
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    private static byte[] sha1(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(bytes);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2015 Red Hat, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package build.tools.tzdb;
+
+import build.tools.tzdb.support.com.redhat.openjdk.support7.Files;
+import build.tools.tzdb.support.com.redhat.openjdk.support7.Path;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Snapshot of the models parsed from TZDB source files, stored next to the
+ * sources so that unchanged files are not parsed again by later runs.
+ * <p>
+ * Each entry is keyed by the SHA-1 hash of the contents of a source file,
+ * so an edited file is never matched with a stale model. The value is the
+ * model in the binary form written by {@code TzdbZoneRulesCompiler}, this
+ * class does not interpret it.
+ * <p>
+ * When saved, the snapshot only keeps the entries used by the current run.
+ *
+ * <h4>Implementation notes</h4>
+ * This class is mutable and must only be used from a single thread.
+ */
+final class TzdbParseCache {
+
+    /** The format version, changed whenever the snapshot or model format changes. */
+    private static final int FORMAT_VERSION = 1;
+    /** The group written after the format version. */
+    private static final String GROUP = "TZDBPARSE";
+
+    /** The snapshot file. */
+    private final Path file;
+    /** The entries loaded from the snapshot, keyed by hash. */
+    private final Map<String, byte[]> loaded = new HashMap<String, byte[]>();
+    /** The entries used by this run, keyed by hash. */
+    private final Map<String, byte[]> used = new LinkedHashMap<String, byte[]>();
+    /** Whether an entry was added since the snapshot was loaded. */
+    private boolean modified;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param file  the snapshot file, not null
+     */
+    TzdbParseCache(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the snapshot file, if it exists. If the file cannot be read
+     * the cache is left empty.
+     *
+     * @throws IOException if the snapshot exists but cannot be read or has an unknown format
+     */
+    void load() throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file)));
+        try {
+            if (in.readByte() != FORMAT_VERSION || !GROUP.equals(in.readUTF())) {
+                throw new IOException("Unknown parse cache format");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String hash = in.readUTF();
+                byte[] model = new byte[in.readInt()];
+                in.readFully(model);
+                loaded.put(hash, model);
+            }
+        } catch (IOException ex) {
+            loaded.clear();
+            throw ex;
+        }
+    }
+
+    /**
+     * Gets the model of a source file.
+     *
+     * @param hash  the hash of the source file contents, not null
+     * @return the model, null if not cached
+     */
+    byte[] get(String hash) {
+        byte[] model = loaded.get(hash);
+        if (model != null) {
+            used.put(hash, model);
+        }
+        return model;
+    }
+
+    /**
+     * Adds the model of a newly parsed source file.
+     *
+     * @param hash  the hash of the source file contents, not null
+     * @param model  the model, not null
+     */
+    void put(String hash, byte[] model) {
+        used.put(hash, model);
+        modified = true;
+    }
+
+    /**
+     * Saves the entries used by this run, unless they are the same as those loaded.
+     *
+     * @return true if the snapshot file was written
+     * @throws IOException if an error occurs
+     */
+    boolean save() throws IOException {
+        if (!modified && used.size() == loaded.size()) {
+            return false;
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeByte(FORMAT_VERSION);
+        out.writeUTF(GROUP);
+        out.writeInt(used.size());
+        for (Map.Entry<String, byte[]> entry : used.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue().length);
+            out.write(entry.getValue());
+        }
+        out.close();
+        // replaced, so a concurrent or interrupted run never sees a partial snapshot
+        Files.replace(file, ByteBuffer.wrap(buffer.toByteArray()));
+        return true;
+    }
+
+    /**
+     * Hashes the contents of a source file.
+     *
+     * @param contents  the file contents, from index zero up to the limit, not null
+     * @return the lower-case hex SHA-1 hash, not null
+     */
+    static String hash(ByteBuffer contents) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        ByteBuffer buf = contents.duplicate();
+        buf.position(0);
+        digest.update(buf);
+        StringBuilder hex = new StringBuilder(40);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2015 Red Hat, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package build.tools.tzdb;
+
+import build.tools.tzdb.support.com.redhat.openjdk.support7.Files;
+import build.tools.tzdb.support.com.redhat.openjdk.support7.Path;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Selects the regions to compile, by region ID globs.
+ * <p>
+ * A region is selected if it matches an include glob, or any region if there
+ * is none, and does not match an exclude glob. In a glob, {@code *} matches
+ * any characters, including {@code /}, and {@code ?} matches one character,
+ * so {@code America/*} selects {@code America/Argentina/Salta}.
+ * <p>
+ * A region list file holds more include globs, one per line, ignoring blank
+ * lines and comments starting with {@code #}.
+ *
+ * <h4>Implementation notes</h4>
+ * This class is mutable while the globs are added, then read-only and
+ * thread-safe.
+ */
+final class TzdbRegionFilter {
+
+    /** The include globs. */
+    private final List<String> includes = new ArrayList<String>();
+    /** The exclude globs. */
+    private final List<String> excludes = new ArrayList<String>();
+
+    /**
+     * Adds an include glob.
+     *
+     * @param glob  the glob, not null
+     */
+    void include(String glob) {
+        includes.add(glob);
+    }
+
+    /**
+     * Adds an exclude glob.
+     *
+     * @param glob  the glob, not null
+     */
+    void exclude(String glob) {
+        excludes.add(glob);
+    }
+
+    /**
+     * Adds the include globs of a region list file.
+     *
+     * @param file  the region list file, not null
+     * @throws IOException if the file cannot be read
+     */
+    void includeAll(Path file) throws IOException {
+        for (String line : Files.readAllLines(file, Charset.forName("UTF-8"))) {
+            int comment = line.indexOf('#');
+            String glob = (comment >= 0 ? line.substring(0, comment) : line).trim();
+            if (glob.length() > 0) {
+                includes.add(glob);
+            }
+        }
+    }
+
+    /**
+     * Checks whether the filter selects every region.
+     *
+     * @return true if there is no glob
+     */
+    boolean isEmpty() {
+        return includes.isEmpty() && excludes.isEmpty();
+    }
+
+    /**
+     * Checks whether a region is selected.
+     *
+     * @param regionId  the region ID, not null
+     * @return true if the region is selected
+     */
+    boolean accepts(String regionId) {
+        return (includes.isEmpty() || matchesAny(includes, regionId)) && !isExcluded(regionId);
+    }
+
+    /**
+     * Checks whether a region is explicitly selected, by an include glob.
+     *
+     * @param regionId  the region ID, not null
+     * @return true if the region matches an include glob and no exclude glob
+     */
+    boolean isIncluded(String regionId) {
+        return matchesAny(includes, regionId) && !isExcluded(regionId);
+    }
+
+    /**
+     * Checks whether a region matches an exclude glob.
+     *
+     * @param regionId  the region ID, not null
+     * @return true if the region is excluded
+     */
+    boolean isExcluded(String regionId) {
+        return matchesAny(excludes, regionId);
+    }
+
+    private static boolean matchesAny(List<String> globs, String regionId) {
+        for (String glob : globs) {
+            if (matches(glob, 0, regionId, 0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Matches the rest of a region ID against the rest of a glob.
+     */
+    private static boolean matches(String glob, int g, String regionId, int r) {
+        while (g < glob.length()) {
+            char c = glob.charAt(g);
+            if (c == '*') {
+                while (g < glob.length() && glob.charAt(g) == '*') {
+                    g++;
+                }
+                if (g == glob.length()) {
+                    return true;
+                }
+                for (int i = r; i < regionId.length(); i++) {
+                    if (matches(glob, g, regionId, i)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            if (r == regionId.length() || (c != '?' && c != regionId.charAt(r))) {
+                return false;
+            }
+            g++;
+            r++;
+        }
+        return r == regionId.length();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2015 Red Hat, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package build.tools.tzdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A table of interned names, such as rule names or region IDs.
+ * <p>
+ * Each distinct name is given a small integer ID, allocated sequentially
+ * from zero, so the data associated with the names can be held in arrays
+ * indexed by ID. Names are only hashed when interned while parsing, the
+ * later phases use the IDs directly.
+ *
+ * <h4>Implementation notes</h4>
+ * This class is thread-safe, so files parsed concurrently can share a table.
+ * The IDs then depend on the order the names are interned, nothing else may.
+ */
+final class TzdbSymbols {
+
+    /** The IDs, keyed by name. */
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+    /** The names, indexed by ID. */
+    private final List<String> names = new ArrayList<String>();
+
+    /**
+     * Interns a name.
+     *
+     * @param name  the name, not null
+     * @return the ID of the name, allocated if the name is new
+     */
+    synchronized int intern(String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = names.size();
+            ids.put(name, id);
+            names.add(name);
+        }
+        return id;
+    }
+
+    /**
+     * Finds the ID of a name without interning it.
+     *
+     * @param name  the name, not null
+     * @return the ID of the name, -1 if not interned
+     */
+    synchronized int id(String name) {
+        Integer id = ids.get(name);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * Gets the name of an ID.
+     *
+     * @param id  the ID
+     * @return the name, not null
+     */
+    synchronized String name(int id) {
+        return names.get(id);
+    }
+
+    /**
+     * Gets the number of names, which is one more than the largest ID.
+     *
+     * @return the number of names
+     */
+    synchronized int size() {
+        return names.size();
+    }
+
+    /**
+     * Sorts IDs into the natural order of their names.
+     *
+     * @param idList  the IDs to sort, not null
+     */
+    synchronized void sort(List<Integer> idList) {
+        Collections.sort(idList, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer id1, Integer id2) {
+                return names.get(id1).compareTo(names.get(id2));
+            }
+        });
+    }
+}
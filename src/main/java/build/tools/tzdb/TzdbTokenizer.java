@@ -0,0 +1,348 @@
+/*
+ * Copyright 2015 Red Hat, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package build.tools.tzdb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A reusable whitespace tokenizer for the lines of TZDB source files.
+ * <p>
+ * The tokenizer copies a line into an internal buffer, drops the trailing
+ * comment and records the start and end index of each field. Fields are
+ * compared and decoded in place, so splitting a line creates neither
+ * a {@code Scanner} nor a {@code String} per field.
+ * <p>
+ * Fields are consumed in order using {@link #hasNext()} and {@link #next()},
+ * which mirror the {@code Scanner} methods they replace, and then accessed
+ * by the returned field index.
+ *
+ * <h4>Implementation notes</h4>
+ * This class is mutable and must only be used from a single thread.
+ */
+final class TzdbTokenizer {
+
+    /** The characters of the current line. */
+    private char[] chars = new char[128];
+    /** The length of the current line, excluding any comment. */
+    private int length;
+    /** The start index of each field. */
+    private int[] starts = new int[16];
+    /** The end index (exclusive) of each field. */
+    private int[] ends = new int[16];
+    /** The number of fields. */
+    private int count;
+    /** The index of the next field to be returned by {@link #next()}. */
+    private int cursor;
+
+    /**
+     * Splits the specified line into fields.
+     *
+     * @param line  the line to split, not null
+     * @return true if the line contains at least one field
+     */
+    boolean reset(CharSequence line) {
+        return reset(line, true);
+    }
+
+    /**
+     * Splits the specified line into fields, optionally without looking for
+     * trailing comments.
+     * <p>
+     * Lines of the compact {@code tzdata.zi} format never have a trailing
+     * comment, only whole-line comments which are skipped without being copied.
+     *
+     * @param line  the line to split, not null
+     * @param stripComments  whether to remove a trailing comment
+     * @return true if the line contains at least one field
+     */
+    boolean reset(CharSequence line, boolean stripComments) {
+        int len = line.length();
+        if (!stripComments && len > 0 && line.charAt(0) == '#') {
+            count = 0;
+            cursor = 0;
+            length = 0;
+            return false;
+        }
+        if (len > chars.length) {
+            chars = new char[Math.max(len, chars.length * 2)];
+        }
+        for (int i = 0; i < len; i++) {
+            chars[i] = line.charAt(i);
+        }
+        return split(len, stripComments);
+    }
+
+    /**
+     * Splits the first {@code len} characters of the internal buffer.
+     *
+     * @param len  the number of characters in the line
+     * @param stripComments  whether to remove a trailing comment
+     * @return true if the line contains at least one field
+     */
+    private boolean split(int len, boolean stripComments) {
+        count = 0;
+        cursor = 0;
+        length = len;
+        int i = 0;
+        while (i < len) {
+            char c = chars[i];
+            if (c == '#' && stripComments) {  // remove comments (doesn't handle # in quotes)
+                length = i;
+                break;
+            }
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < len && (chars[i] != '#' || !stripComments) && !Character.isWhitespace(chars[i])) {
+                i++;
+            }
+            if (count == starts.length) {
+                int[] newStarts = new int[count * 2];
+                int[] newEnds = new int[count * 2];
+                System.arraycopy(starts, 0, newStarts, 0, count);
+                System.arraycopy(ends, 0, newEnds, 0, count);
+                starts = newStarts;
+                ends = newEnds;
+            }
+            starts[count] = start;
+            ends[count] = i;
+            count++;
+        }
+        return count > 0;
+    }
+
+    /**
+     * Checks if the line starts with whitespace, as continuation lines do.
+     *
+     * @return true if the first character of the line is whitespace
+     */
+    boolean isIndented() {
+        return length > 0 && Character.isWhitespace(chars[0]);
+    }
+
+    /**
+     * Checks if there is another field to consume.
+     *
+     * @return true if {@link #next()} will succeed
+     */
+    boolean hasNext() {
+        return cursor < count;
+    }
+
+    /**
+     * Consumes the next field.
+     *
+     * @return the index of the field
+     * @throws NoSuchElementException if all the fields have been consumed
+     */
+    int next() {
+        if (cursor >= count) {
+            throw new NoSuchElementException();
+        }
+        return cursor++;
+    }
+
+    /**
+     * Gets the length of a field.
+     *
+     * @param field  the field index
+     * @return the number of characters in the field
+     */
+    int length(int field) {
+        return ends[field] - starts[field];
+    }
+
+    /**
+     * Gets a character of a field.
+     *
+     * @param field  the field index
+     * @param offset  the offset within the field
+     * @return the character
+     */
+    char charAt(int field, int offset) {
+        return chars[starts[field] + offset];
+    }
+
+    /**
+     * Gets a field as a string.
+     *
+     * @param field  the field index
+     * @return the field text, not null
+     */
+    String get(int field) {
+        return get(field, 0);
+    }
+
+    /**
+     * Gets the remainder of a field as a string.
+     *
+     * @param field  the field index
+     * @param offset  the offset within the field to start from
+     * @return the field text from the offset, not null
+     */
+    String get(int field, int offset) {
+        int start = starts[field] + offset;
+        return new String(chars, start, ends[field] - start);
+    }
+
+    /**
+     * Checks if a field is equal to the specified text.
+     *
+     * @param field  the field index
+     * @param str  the text to compare to, not null
+     * @return true if the field matches exactly
+     */
+    boolean equals(int field, String str) {
+        return regionMatches(field, 0, str, false) && length(field) == str.length();
+    }
+
+    /**
+     * Checks if a field is equal to the specified text ignoring case.
+     *
+     * @param field  the field index
+     * @param str  the text to compare to, not null
+     * @return true if the field matches ignoring case
+     */
+    boolean equalsIgnoreCase(int field, String str) {
+        return regionMatches(field, 0, str, true) && length(field) == str.length();
+    }
+
+    /**
+     * Checks if a field starts with the specified text.
+     *
+     * @param field  the field index
+     * @param prefix  the prefix to check, not null
+     * @return true if the field starts with the prefix
+     */
+    boolean startsWith(int field, String prefix) {
+        return regionMatches(field, 0, prefix, false);
+    }
+
+    /**
+     * Finds the specified text within a field.
+     *
+     * @param field  the field index
+     * @param str  the text to find, not null
+     * @return the offset of the text within the field, -1 if not found
+     */
+    int indexOf(int field, String str) {
+        int last = length(field) - str.length();
+        for (int offset = 0; offset <= last; offset++) {
+            if (regionMatches(field, offset, str, false)) {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    private boolean regionMatches(int field, int offset, String str, boolean ignoreCase) {
+        int start = starts[field] + offset;
+        int len = str.length();
+        if (start + len > ends[field]) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            char c1 = chars[start + i];
+            char c2 = str.charAt(i);
+            if (c1 != c2 && (!ignoreCase || Character.toLowerCase(c1) != Character.toLowerCase(c2))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if a field consists only of ASCII digits.
+     *
+     * @param field  the field index
+     * @return true if the field is a non-empty run of digits
+     */
+    boolean isDigits(int field) {
+        if (starts[field] == ends[field]) {
+            return false;
+        }
+        for (int i = starts[field]; i < ends[field]; i++) {
+            if (chars[i] < '0' || chars[i] > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses a field as a signed decimal integer, in the same way as
+     * {@code Integer.parseInt}.
+     *
+     * @param field  the field index
+     * @return the parsed value
+     * @throws NumberFormatException if the field is not a valid integer
+     */
+    int parseInt(int field) {
+        return parseInt(field, 0);
+    }
+
+    /**
+     * Parses the remainder of a field as a signed decimal integer, in the same
+     * way as {@code Integer.parseInt}.
+     *
+     * @param field  the field index
+     * @param offset  the offset within the field to start from
+     * @return the parsed value
+     * @throws NumberFormatException if the field is not a valid integer
+     */
+    int parseInt(int field, int offset) {
+        int i = starts[field] + offset;
+        int end = ends[field];
+        boolean negative = i < end && chars[i] == '-';
+        if (negative) {
+            i++;
+        }
+        if (i >= end) {
+            throw new NumberFormatException("For input string: \"" + get(field, offset) + "\"");
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            char c = chars[i];
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException("For input string: \"" + get(field, offset) + "\"");
+            }
+            value = value * 10 + (c - '0');
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw new NumberFormatException("For input string: \"" + get(field, offset) + "\"");
+            }
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("For input string: \"" + get(field, offset) + "\"");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Returns the line without its comment.
+     *
+     * @return the line text, not null
+     */
+    @Override
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2015 Red Hat, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package build.tools.tzdb;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of offset transitions held in primitive arrays.
+ * <p>
+ * Each transition is the epoch second of the instant it occurs, and the total
+ * seconds of the offsets before and after. This is the same information as a
+ * {@link ZoneOffsetTransition}, without the date-time and offset objects, so
+ * {@code ZoneRulesBuilder} can record transitions without allocating per entry.
+ *
+ * <h4>Implementation notes</h4>
+ * This class is mutable and must only be used from a single thread.
+ */
+final class TzdbTransitionBuffer {
+
+    /** The epoch seconds of the transitions. */
+    private long[] epochSeconds;
+    /** The total seconds of the offsets before the transitions. */
+    private int[] offsetsBefore;
+    /** The total seconds of the offsets after the transitions. */
+    private int[] offsetsAfter;
+    /** The number of transitions. */
+    private int size;
+
+    /**
+     * Creates an empty buffer.
+     *
+     * @param capacity  the initial capacity
+     */
+    TzdbTransitionBuffer(int capacity) {
+        epochSeconds = new long[capacity];
+        offsetsBefore = new int[capacity];
+        offsetsAfter = new int[capacity];
+    }
+
+    /**
+     * Appends a transition.
+     *
+     * @param epochSecond  the transition epoch-second
+     * @param offsetBeforeSecs  the total seconds of the offset before the transition
+     * @param offsetAfterSecs  the total seconds of the offset at and after the transition
+     * @throws IllegalArgumentException if the offsets are equal
+     */
+    void add(long epochSecond, int offsetBeforeSecs, int offsetAfterSecs) {
+        if (offsetBeforeSecs == offsetAfterSecs) {
+            throw new IllegalArgumentException("Offsets must not be equal");
+        }
+        if (size == epochSeconds.length) {
+            int capacity = Math.max(8, size * 2);
+            epochSeconds = Arrays.copyOf(epochSeconds, capacity);
+            offsetsBefore = Arrays.copyOf(offsetsBefore, capacity);
+            offsetsAfter = Arrays.copyOf(offsetsAfter, capacity);
+        }
+        epochSeconds[size] = epochSecond;
+        offsetsBefore[size] = offsetBeforeSecs;
+        offsetsAfter[size] = offsetAfterSecs;
+        size++;
+    }
+
+    /**
+     * Gets the number of transitions.
+     *
+     * @return the number of transitions
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Gets the epoch second of a transition.
+     *
+     * @param index  the index of the transition
+     * @return the transition epoch-second
+     */
+    long epochSecond(int index) {
+        checkIndex(index);
+        return epochSeconds[index];
+    }
+
+    /**
+     * Gets the total seconds of the offset before a transition.
+     *
+     * @param index  the index of the transition
+     * @return the offset total seconds
+     */
+    int offsetBefore(int index) {
+        checkIndex(index);
+        return offsetsBefore[index];
+    }
+
+    /**
+     * Gets the total seconds of the offset at and after a transition.
+     *
+     * @param index  the index of the transition
+     * @return the offset total seconds
+     */
+    int offsetAfter(int index) {
+        checkIndex(index);
+        return offsetsAfter[index];
+    }
+
+    /**
+     * Copies the epoch seconds of all transitions.
+     *
+     * @return a new array of the epoch seconds, not null
+     */
+    long[] toEpochSecondArray() {
+        return Arrays.copyOf(epochSeconds, size);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+    }
+}
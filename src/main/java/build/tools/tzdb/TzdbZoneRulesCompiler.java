@@ -56,28 +56,40 @@
  */
 package build.tools.tzdb;
 
-import build.tools.tzdb.support.com.redhat.openjdk.support7.AutoCloseableUtils;
 
 import static build.tools.tzdb.Utils.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
 import java.io.DataOutputStream;
-import build.tools.tzdb.support.com.redhat.openjdk.support7.StandardCharsets;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
 import build.tools.tzdb.support.com.redhat.openjdk.support7.Files;
+import build.tools.tzdb.support.com.redhat.openjdk.support7.MappedLineReader;
 import build.tools.tzdb.support.com.redhat.openjdk.support7.Path;
 import build.tools.tzdb.support.com.redhat.openjdk.support7.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.Scanner;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import build.tools.tzdb.support.com.google.code.regexp.Matcher;
-import java.util.regex.MatchResult;
 import build.tools.tzdb.support.com.google.code.regexp.Pattern;
 
 /**
@@ -89,17 +101,29 @@ import build.tools.tzdb.support.com.google.code.regexp.Pattern;
 public final class TzdbZoneRulesCompiler {
 
     public static void main(String[] args) {
-        new TzdbZoneRulesCompiler().compile(args);
+        System.exit(run(args));
     }
 
-    private void compile(String[] args) {
+    /**
+     * Runs the compiler without terminating the JVM.
+     *
+     * @param args  the command line arguments, not null
+     * @return the exit status, zero on success
+     */
+    public static int run(String[] args) {
+        return new TzdbZoneRulesCompiler().compile(args);
+    }
+
+    private int compile(String[] args) {
         if (args.length < 2) {
             outputHelp();
-            return;
+            return 0;
         }
-        Path srcDir = null;
+        List<TZDBSource> sources = new ArrayList<TZDBSource>();
         Path dstFile = null;
-        String version = null;
+        Path deltaFrom = null;
+        Path applyDelta = null;
+        Path regionList = null;
         // parse args/options
         int i;
         for (i = 0; i < args.length; i++) {
@@ -108,8 +132,13 @@ public final class TzdbZoneRulesCompiler {
                 break;
             }
             if ("-srcdir".equals(arg)) {
-                if (srcDir == null && ++i < args.length) {
-                    srcDir = Paths.get(args[i]);
+                if (++i < args.length) {
+                    sources.add(new TZDBSource(Paths.get(args[i]), null));
+                    continue;
+                }
+            } else if ("-srcarchive".equals(arg)) {
+                if (++i < args.length) {
+                    sources.add(new TZDBSource(null, Paths.get(args[i])));
                     continue;
                 }
             } else if ("-dstfile".equals(arg)) {
@@ -117,6 +146,82 @@ public final class TzdbZoneRulesCompiler {
                     dstFile = Paths.get(args[i]);
                     continue;
                 }
+            } else if ("-deltafrom".equals(arg)) {
+                if (deltaFrom == null && ++i < args.length) {
+                    deltaFrom = Paths.get(args[i]);
+                    continue;
+                }
+            } else if ("-applydelta".equals(arg)) {
+                if (applyDelta == null && ++i < args.length) {
+                    applyDelta = Paths.get(args[i]);
+                    continue;
+                }
+            } else if ("-since".equals(arg)) {
+                if (sinceYear == null && ++i < args.length) {
+                    sinceYear = parseYear(args[i]);
+                    if (sinceYear != null) {
+                        continue;
+                    }
+                    System.out.println("Invalid year: " + args[i]);
+                }
+            } else if ("-expand-until".equals(arg)) {
+                if (expandUntilYear == null && ++i < args.length) {
+                    expandUntilYear = parseYear(args[i]);
+                    if (expandUntilYear != null) {
+                        continue;
+                    }
+                    System.out.println("Invalid year: " + args[i]);
+                }
+            } else if ("-cluster".equals(arg)) {
+                if (clusterYears == null && ++i < args.length) {
+                    clusterYears = parseYearRange(args[i]);
+                    if (clusterYears != null) {
+                        continue;
+                    }
+                    System.out.println("Invalid year range: " + args[i]);
+                }
+            } else if ("-clustershare".equals(arg)) {
+                if (!clusterShare) {
+                    clusterShare = true;
+                    continue;
+                }
+            } else if ("-regex".equals(arg)) {
+                if (!regexFields) {
+                    regexFields = true;
+                    continue;
+                }
+            } else if ("-threads".equals(arg)) {
+                if (threads == 0 && ++i < args.length) {
+                    try {
+                        threads = Integer.parseInt(args[i]);
+                    } catch (NumberFormatException ex) {
+                        threads = 0;
+                    }
+                    if (threads > 0) {
+                        continue;
+                    }
+                    System.out.println("Invalid number of threads: " + args[i]);
+                }
+            } else if ("-include".equals(arg)) {
+                if (++i < args.length) {
+                    regionFilter.include(args[i]);
+                    continue;
+                }
+            } else if ("-exclude".equals(arg)) {
+                if (++i < args.length) {
+                    regionFilter.exclude(args[i]);
+                    continue;
+                }
+            } else if ("-regionlist".equals(arg)) {
+                if (regionList == null && ++i < args.length) {
+                    regionList = Paths.get(args[i]);
+                    continue;
+                }
+            } else if ("-cache".equals(arg)) {
+                if (!cache) {
+                    cache = true;
+                    continue;
+                }
             } else if ("-verbose".equals(arg)) {
                 if (!verbose) {
                     verbose = true;
@@ -126,16 +231,37 @@ public final class TzdbZoneRulesCompiler {
                 System.out.println("Unrecognised option: " + arg);
             }
             outputHelp();
-            return;
+            return 0;
+        }
+        if (applyDelta != null) {
+            if (!sources.isEmpty() || deltaFrom != null || dstFile == null) {
+                System.err.println("Delta must be applied using only -applydelta and -dstfile");
+                return 1;
+            }
+            return applyDelta(applyDelta, dstFile);
         }
-        // check source directory
-        if (srcDir == null) {
-            System.err.println("Source directory must be specified using -srcdir");
-            System.exit(1);
+        if (regionList != null) {
+            try {
+                regionFilter.includeAll(regionList);
+            } catch (IOException ex) {
+                System.err.println("Cannot read region list file: " + regionList + ", " + ex);
+                return 1;
+            }
         }
-        if (!Files.isDirectory(srcDir)) {
-            System.err.println("Source does not exist or is not a directory: " + srcDir);
-            System.exit(1);
+        // check source directories and archives
+        if (sources.isEmpty()) {
+            System.err.println("Source directory must be specified using -srcdir or -srcarchive");
+            return 1;
+        }
+        for (TZDBSource source : sources) {
+            if (source.dir != null && !Files.isDirectory(source.dir)) {
+                System.err.println("Source does not exist or is not a directory: " + source.dir);
+                return 1;
+            }
+            if (source.archive != null && (!Files.exists(source.archive) || Files.isDirectory(source.archive))) {
+                System.err.println("Source archive does not exist or is a directory: " + source.archive);
+                return 1;
+            }
         }
         // parse source file names
         if (i == args.length) {
@@ -148,542 +274,1090 @@ public final class TzdbZoneRulesCompiler {
             }
             System.out.println(")");
         }
-        // source files in this directory
-        List<Path> srcFiles = new ArrayList<Path>();
-        for (; i < args.length; i++) {
-            Path file = srcDir.resolve(args[i]);
-            if (Files.exists(file)) {
-                srcFiles.add(file);
-            } else {
-                System.err.println("Source directory does not contain source file: " + args[i]);
-                System.exit(1);
-            }
-        }
+        List<String> srcNames = Arrays.asList(args).subList(i, args.length);
         // check destination file
         if (dstFile == null) {
-            dstFile = srcDir.resolve("tzdb.dat");
+            dstFile = sources.get(0).baseDir().resolve("tzdb.dat");
         } else {
             Path parent = dstFile.getParent();
             if (parent != null && !Files.exists(parent)) {
                 System.err.println("Destination directory does not exist: " + parent);
-                System.exit(1);
+                return 1;
             }
         }
+        if (clusterShare && clusterYears == null) {
+            System.err.println("Cluster years must be specified using -cluster to share their rules");
+            return 1;
+        }
+        if (deltaFrom != null && (!Files.exists(deltaFrom) || Files.isDirectory(deltaFrom))) {
+            System.err.println("Delta base file does not exist or is a directory: " + deltaFrom);
+            return 1;
+        }
         try {
-            // get tzdb source version
-            Matcher m = Pattern.compile("tzdata(?<ver>[0-9]{4}[A-z])")
-                               .matcher(new String(Files.readAllBytes(srcDir.resolve("VERSION")),
-                                                   "ISO-8859-1"));
-            if (m.find()) {
-                version = m.group("ver");
-            } else {
-                System.exit(1);
-                System.err.println("Source directory does not contain file: VERSION");
-            }
-            printVerbose("Compiling TZDB version " + version);
-            // parse source files
-            for (Path file : srcFiles) {
-                printVerbose("Parsing file: " + file);
-                parseFile(file);
-            }
-            // build zone rules
-            printVerbose("Building rules");
-            buildZoneRules();
+            // compile each source separately, as one version of the output
+            List<String> versions = new ArrayList<String>(sources.size());
+            List<SortedMap<String, byte[]>> versionRules = new ArrayList<SortedMap<String, byte[]>>(sources.size());
+            List<Map<String, String>> versionAliases = new ArrayList<Map<String, String>>(sources.size());
+            for (TZDBSource source : sources) {
+                TzdbZoneRulesCompiler compiler = new TzdbZoneRulesCompiler(this);
+                String version = compiler.compileSource(source, srcNames);
+                if (version == null) {
+                    return 1;
+                }
+                if (versions.contains(version)) {
+                    System.err.println("Duplicate TZDB version: " + version);
+                    return 1;
+                }
+                versions.add(version);
+                versionRules.add(compiler.serializeRegions());
+                versionAliases.add(compiler.aliases());
+            }
+            // saved after all the sources, keeping the files used by any of them
+            for (Map.Entry<String, TzdbParseCache> entry : parseCaches.entrySet()) {
+                if (entry.getValue().save()) {
+                    printVerbose("Saved parse cache: " + entry.getKey());
+                }
+            }
+            if (clusterYears != null && !clusterShare) {
+                return 0;  // analysis only
+            }
             // output to file
             printVerbose("Outputting tzdb file: " + dstFile);
-            outputFile(dstFile, version, builtZones, links);
+            TzdbDataFile dataFile = TzdbDataFile.of(versions, versionRules, versionAliases);
+            if (versions.size() > 1) {
+                printVerbose("Shared " + dataFile.getRulesCount() + " distinct rules between versions " + versions);
+            }
+            byte[] bytes = dataFile.toByteArray();
+            Files.replace(dstFile, ByteBuffer.wrap(bytes));
+            if (deltaFrom != null) {
+                Path deltaFile = Paths.get(dstFile + ".delta");
+                printVerbose("Outputting delta from " + deltaFrom + ": " + deltaFile);
+                byte[] delta = TzdbDelta.create(Files.readAllBytes(deltaFrom), bytes);
+                Files.replace(deltaFile, ByteBuffer.wrap(delta));
+                printVerbose("Delta is " + delta.length + " bytes, file is " + bytes.length + " bytes");
+            }
         } catch (Exception ex) {
             System.out.println("Failed: " + ex.toString());
             ex.printStackTrace();
-            System.exit(1);
+            return 1;
         }
-        System.exit(0);
-    }
-
-    /**
-     * Output usage text for the command line.
-     */
-    private static void outputHelp() {
-        System.out.println("Usage: TzdbZoneRulesCompiler <options> <tzdb source filenames>");
-        System.out.println("where options include:");
-        System.out.println("   -srcdir  <directory>  Where to find tzdb source directory (required)");
-        System.out.println("   -dstfile <file>       Where to output generated file (default srcdir/tzdb.dat)");
-        System.out.println("   -help                 Print this usage message");
-        System.out.println("   -verbose              Output verbose information during compilation");
-        System.out.println(" The source directory must contain the unpacked tzdb files, such as asia or europe");
+        return 0;
     }
 
     /**
-     * Outputs the file.
+     * Replaces a compiled file with the file rebuilt from it and a delta.
+     *
+     * @param deltaFile  the delta created from the file, not null
+     * @param dstFile  the file to patch, not null
+     * @return the exit status, zero on success
      */
-    private void outputFile(Path dstFile, String version,
-                            SortedMap<String, ZoneRules> builtZones,
-                            Map<String, String> links) {
-        DataOutputStream out = null;
+    private int applyDelta(Path deltaFile, Path dstFile) {
+        if (!Files.exists(deltaFile) || !Files.exists(dstFile)) {
+            System.err.println("Delta or destination file does not exist: " + deltaFile + ", " + dstFile);
+            return 1;
+        }
         try {
-            out = new DataOutputStream(Files.newOutputStream(dstFile));
-            // file version
-            out.writeByte(1);
-            // group
-            out.writeUTF("TZDB");
-            // versions
-            out.writeShort(1);
-            out.writeUTF(version);
-            // regions
-            String[] regionArray = builtZones.keySet().toArray(new String[builtZones.size()]);
-            out.writeShort(regionArray.length);
-            for (String regionId : regionArray) {
-                out.writeUTF(regionId);
-            }
-            // rules  -- hashset -> remove the dup
-            List<ZoneRules> rulesList = new ArrayList<ZoneRules>(new LinkedHashSet<ZoneRules>(builtZones.values()));
-            out.writeShort(rulesList.size());
-            ByteArrayOutputStream baos = new ByteArrayOutputStream(1024);
-            for (ZoneRules rules : rulesList) {
-                baos.reset();
-                DataOutputStream dataos = new DataOutputStream(baos);
-                rules.writeExternal(dataos);
-                dataos.close();
-                byte[] bytes = baos.toByteArray();
-                out.writeShort(bytes.length);
-                out.write(bytes);
-            }
-            // link version-region-rules
-            out.writeShort(builtZones.size());
-            for (Map.Entry<String, ZoneRules> entry : builtZones.entrySet()) {
-                 int regionIndex = Arrays.binarySearch(regionArray, entry.getKey());
-                 int rulesIndex = rulesList.indexOf(entry.getValue());
-                 out.writeShort(regionIndex);
-                 out.writeShort(rulesIndex);
-            }
-            // alias-region
-            out.writeShort(links.size());
-            for (Map.Entry<String, String> entry : links.entrySet()) {
-                 int aliasIndex = Arrays.binarySearch(regionArray, entry.getKey());
-                 int regionIndex = Arrays.binarySearch(regionArray, entry.getValue());
-                 out.writeShort(aliasIndex);
-                 out.writeShort(regionIndex);
-            }
-            out.flush();
+            printVerbose("Applying delta " + deltaFile + " to " + dstFile);
+            byte[] bytes = TzdbDelta.apply(Files.readAllBytes(dstFile), Files.readAllBytes(deltaFile));
+            Files.replace(dstFile, ByteBuffer.wrap(bytes));
         } catch (Exception ex) {
             System.out.println("Failed: " + ex.toString());
             ex.printStackTrace();
-            System.exit(1);
-        } finally {
-            AutoCloseableUtils.closeQuietly(out);
+            return 1;
         }
-    }
-
-    private static final Pattern YEAR = Pattern.compile("(?i)(?<min>min)|(?<max>max)|(?<only>only)|(?<year>[0-9]+)");
-    private static final Pattern MONTH = Pattern.compile("(?i)(jan)|(feb)|(mar)|(apr)|(may)|(jun)|(jul)|(aug)|(sep)|(oct)|(nov)|(dec)");
-    private static final Matcher DOW = Pattern.compile("(?i)(mon)|(tue)|(wed)|(thu)|(fri)|(sat)|(sun)").matcher("");
-    private static final Matcher TIME = Pattern.compile("(?<neg>-)?+(?<hour>[0-9]{1,2})(:(?<minute>[0-5][0-9]))?+(:(?<second>[0-5][0-9]))?+").matcher("");
-
-    /** The TZDB rules. */
-    private final Map<String, List<TZDBRule>> rules = new LinkedHashMap<String, List<TZDBRule>>();
-
-    /** The TZDB zones. */
-    private final Map<String, List<TZDBZone>> zones = new LinkedHashMap<String, List<TZDBZone>>();
-
-    /** The TZDB links. */
-    private final Map<String, String> links = new LinkedHashMap<String, String>();
-
-    /** The built zones. */
-    private final SortedMap<String, ZoneRules> builtZones = new TreeMap<String, ZoneRules>();
-
-    /** Whether to output verbose messages. */
-    private boolean verbose;
-
-    /**
-     * private contructor
-     */
-    private TzdbZoneRulesCompiler() {
+        return 0;
     }
 
     /**
-     * Parses a source file.
+     * Parses and builds the zones of a source.
      *
-     * @param file  the file being read, not null
+     * @param source  the source, not null
+     * @param srcNames  the names of the source files, not null
+     * @return the TZDB version of the source, null if the source is invalid
      * @throws Exception if an error occurs
      */
-    private void parseFile(Path file) throws Exception {
-        int lineNumber = 1;
-        String line = null;
-        try {
-            List<String> lines = Files.readAllLines(file, StandardCharsets.ISO_8859_1);
-            List<TZDBZone> openZone = null;
-            for (; lineNumber < lines.size(); lineNumber++) {
-                line = lines.get(lineNumber);
-                int index = line.indexOf('#');  // remove comments (doesn't handle # in quotes)
-                if (index >= 0) {
-                    line = line.substring(0, index);
-                }
-                if (line.trim().length() == 0) {  // ignore blank lines
-                    continue;
+    private String compileSource(TZDBSource source, List<String> srcNames) throws Exception {
+        Path srcDir = source.dir;
+        Path srcArchive = source.archive;
+        String version;
+        // source files in this directory
+        List<TZDBFile> srcFiles = new ArrayList<TZDBFile>();
+        if (srcDir != null) {
+            for (String name : srcNames) {
+                Path file = srcDir.resolve(name);
+                if (Files.exists(file)) {
+                    srcFiles.add(new TZDBFile(file));
+                } else {
+                    System.err.println("Source directory does not contain source file: " + name);
+                    return null;
                 }
-                Scanner s = new Scanner(line);
-                if (openZone != null && Character.isWhitespace(line.charAt(0)) && s.hasNext()) {
-                    if (parseZoneLine(s, openZone)) {
-                        openZone = null;
-                    }
+            }
+        }
+        byte[] archiveVersionFile = null;
+        if (srcArchive != null) {
+            // source files in this archive
+            List<String> entryNames = new ArrayList<String>(srcNames);
+            entryNames.add("version");
+            Map<String, byte[]> entries = TzdbArchive.readEntries(srcArchive, entryNames);
+            for (String name : srcNames) {
+                byte[] data = entries.get(name);
+                if (data != null) {
+                    srcFiles.add(new TZDBFile(srcArchive + "/" + name, data));
                 } else {
-                    if (s.hasNext()) {
-                        String first = s.next();
-                        if (first.equals("Zone")) {
-                            openZone = new ArrayList<TZDBZone>();
-                            try {
-                                zones.put(s.next(), openZone);
-                                if (parseZoneLine(s, openZone)) {
-                                    openZone = null;
-                                }
-                            } catch (NoSuchElementException x) {
-                                printVerbose("Invalid Zone line in file: " + file + ", line: " + line);
-                                throw new IllegalArgumentException("Invalid Zone line");
-                            }
-                        } else {
-                            openZone = null;
-                            if (first.equals("Rule")) {
-                                try {
-                                    parseRuleLine(s);
-                                } catch (NoSuchElementException x) {
-                                    printVerbose("Invalid Rule line in file: " + file + ", line: " + line);
-                                    throw new IllegalArgumentException("Invalid Rule line");
-                                }
-                            } else if (first.equals("Link")) {
-                                try {
-                                    String realId = s.next();
-                                    String aliasId = s.next();
-                                    links.put(aliasId, realId);
-                                } catch (NoSuchElementException x) {
-                                    printVerbose("Invalid Link line in file: " + file + ", line: " + line);
-                                    throw new IllegalArgumentException("Invalid Link line");
-                                }
-
-                            } else {
-                                throw new IllegalArgumentException("Unknown line");
-                            }
-                        }
-                    }
+                    System.err.println("Source archive does not contain source file: " + name);
+                    return null;
                 }
             }
-        } catch (Exception ex) {
-            throw new Exception("Failed while parsing file '" + file + "' on line " + lineNumber + " '" + line + "'", ex);
+            archiveVersionFile = entries.get("version");
+        }
+        if (cache) {
+            // sources in the same directory share the cache file, so it is loaded once
+            Path cacheFile = source.baseDir().resolve("tzdb.cache");
+            parseCache = parseCaches.get(cacheFile.toString());
+            if (parseCache == null) {
+                parseCache = new TzdbParseCache(cacheFile);
+                try {
+                    parseCache.load();
+                } catch (IOException ex) {
+                    printVerbose("Ignoring invalid parse cache: " + cacheFile + ", " + ex);
+                }
+                parseCaches.put(cacheFile.toString(), parseCache);
+            }
+        }
+        // parse source files
+        parseFiles(srcFiles);
+        // get tzdb source version, a tzdata.zi header is used if there is no version file
+        String compactVersion = null;
+        for (TZDBFile file : srcFiles) {
+            if (file.version != null) {
+                compactVersion = file.version;
+                break;
+            }
+        }
+        if (srcDir != null) {
+            Path versionFile = srcDir.resolve("VERSION");
+            if (compactVersion != null && !Files.exists(versionFile)) {
+                version = compactVersion;
+            } else {
+                Matcher m = Pattern.compile("tzdata(?<ver>[0-9]{4}[A-z])")
+                                   .matcher(new String(Files.readAllBytes(versionFile), "ISO-8859-1"));
+                if (m.find()) {
+                    version = m.group("ver");
+                } else {
+                    System.err.println("Source directory does not contain file: VERSION");
+                    return null;
+                }
+            }
+        } else {
+            version = archiveVersion(srcArchive, archiveVersionFile, compactVersion);
+            if (version == null) {
+                System.err.println("Source archive has no version file and no version in its name: " + srcArchive);
+                return null;
+            }
+        }
+        printVerbose("Compiling TZDB version " + version);
+        // build zone rules
+        printVerbose("Building rules");
+        buildZoneRules();
+        if (expandUntilYear != null) {
+            expandTransitions(expandUntilYear);
+        }
+        if (sinceYear != null) {
+            truncateHistory(version, sinceYear);
+        }
+        if (clusterYears != null) {
+            clusterZones(version, clusterYears[0], clusterYears[1]);
         }
+        return version;
+    }
+
+    /**
+     * Output usage text for the command line.
+     */
+    private static void outputHelp() {
+        System.out.println("Usage: TzdbZoneRulesCompiler <options> <tzdb source filenames>");
+        System.out.println("where options include:");
+        System.out.println("   -srcdir  <directory>  Where to find tzdb source directory (required unless -srcarchive)");
+        System.out.println("   -srcarchive <file>    Where to find tzdb source archive, such as tzdata2015c.tar.gz");
+        System.out.println("   -dstfile <file>       Where to output generated file (default srcdir/tzdb.dat)");
+        System.out.println("   -help                 Print this usage message");
+        System.out.println("   -verbose              Output verbose information during compilation");
+        System.out.println("   -threads <count>      Number of threads used to parse, build and write zones (default 1)");
+        System.out.println("   -deltafrom <file>     Also output dstfile.delta, rebuilding dstfile from this older file");
+        System.out.println("   -applydelta <file>    Patch dstfile in place with a delta, no sources are compiled");
+        System.out.println("   -since <year>         Collapse the transitions before this year, reporting the saving");
+        System.out.println("   -expand-until <year>  Add the transitions of the recurring rules until the end of this year");
+        System.out.println("   -cluster <from>-<to>  Report the classes of zones agreeing on their offsets in these years");
+        System.out.println("                         and output nothing, unless -clustershare is given");
+        System.out.println("   -clustershare         Output the rules of the first zone of each class for all its zones");
+        System.out.println("   -regex                Decode fields using regular expressions (for differential testing)");
+        System.out.println("   -include <glob>       Only compile the regions matching this glob, such as America/*");
+        System.out.println("   -exclude <glob>       Do not compile the regions matching this glob, such as Etc/*");
+        System.out.println("   -regionlist <file>    Only compile the regions matching the globs in this file, one per line");
+        System.out.println("   -cache                Reuse the parsed unchanged source files, kept in tzdb.cache");
+        System.out.println("                         next to the sources");
+        System.out.println(" The source directory must contain the unpacked tzdb files, such as asia or europe");
+        System.out.println(" The source archive is read without unpacking, its version is taken from the");
+        System.out.println(" version file inside the archive or from the archive name");
+        System.out.println(" Either source may provide the compact tzdata.zi file instead of the separate");
+        System.out.println(" tzdb files, its version is taken from its header if there is no version file");
+        System.out.println(" -include and -exclude may be repeated, an alias is kept if its zone is, and it is");
+        System.out.println(" an error to include an alias of a zone not included");
+        System.out.println(" Several sources may be given, each compiled as one version of the output file,");
+        System.out.println(" which stores identical rules once; the last source is the current version");
     }
 
     /**
-     * Parses a Rule line.
+     * Gets the version of a source archive.
      *
-     * @param s  the line scanner, not null
+     * @param srcArchive  the source archive, not null
+     * @param versionFile  the contents of the version file in the archive, null if missing
+     * @param compactVersion  the version from a tzdata.zi header, null if missing
+     * @return the version, such as 2015c, null if not known
+     * @throws Exception if an error occurs
      */
-    private void parseRuleLine(Scanner s) {
-        TZDBRule rule = new TZDBRule();
-        String name = s.next();
-        if (rules.containsKey(name) == false) {
-            rules.put(name, new ArrayList<TZDBRule>());
+    private static String archiveVersion(Path srcArchive, byte[] versionFile, String compactVersion) throws Exception {
+        if (versionFile != null) {
+            Matcher m = Pattern.compile("(?<ver>[0-9]{4}[A-z])")
+                               .matcher(new String(versionFile, "ISO-8859-1").trim());
+            if (m.matches()) {
+                return m.group("ver");
+            }
         }
-        rules.get(name).add(rule);
-        rule.startYear = parseYear(s, 0);
-        rule.endYear = parseYear(s, rule.startYear);
-        if (rule.startYear > rule.endYear) {
-            throw new IllegalArgumentException("Year order invalid: " + rule.startYear + " > " + rule.endYear);
+        if (compactVersion != null) {
+            return compactVersion;
         }
-        parseOptional(s.next());  // type is unused
-        parseMonthDayTime(s, rule);
-        rule.savingsAmount = parsePeriod(s.next());
-        rule.text = parseOptional(s.next());
+        Matcher m = Pattern.compile("tzdata(?<ver>[0-9]{4}[A-z])").matcher(srcArchive.getFile().getName());
+        return m.find() ? m.group("ver") : null;
     }
 
     /**
-     * Parses a Zone line.
+     * Serializes the rules of the built regions.
+     * <p>
+     * Each distinct rules is only serialized once, shared by the regions using it.
      *
-     * @param s  the line scanner, not null
-     * @return true if the zone is complete
-     */
-    private boolean parseZoneLine(Scanner s, List<TZDBZone> zoneList) {
-        TZDBZone zone = new TZDBZone();
-        zoneList.add(zone);
-        zone.standardOffset = parseOffset(s.next());
-        String savingsRule = parseOptional(s.next());
-        if (savingsRule == null) {
-            zone.fixedSavingsSecs = 0;
-            zone.savingsRule = null;
-        } else {
-            try {
-                zone.fixedSavingsSecs = parsePeriod(savingsRule);
-                zone.savingsRule = null;
-            } catch (Exception ex) {
-                zone.fixedSavingsSecs = null;
-                zone.savingsRule = savingsRule;
+     * @return the serialized rules, keyed and sorted by region ID, not null
+     * @throws Exception if an error occurs
+     */
+    private SortedMap<String, byte[]> serializeRegions() throws Exception {
+        // hashmap -> remove the dup, indexing the rules of each region
+        Map<ZoneRules, Integer> rulesMap = new HashMap<ZoneRules, Integer>(builtZones.length * 2);
+        List<ZoneRules> rulesList = new ArrayList<ZoneRules>();
+        int[] rulesIndex = new int[builtZones.length];
+        for (int regionId = 0; regionId < builtZones.length; regionId++) {
+            ZoneRules rules = builtZones[regionId];
+            if (rules != null) {
+                Integer index = rulesMap.get(rules);
+                if (index == null) {
+                    index = rulesList.size();
+                    rulesMap.put(rules, index);
+                    rulesList.add(rules);
+                }
+                rulesIndex[regionId] = index;
             }
         }
-        zone.text = s.next();
-        if (s.hasNext()) {
-            zone.year = Integer.parseInt(s.next());
-            if (s.hasNext()) {
-                parseMonthDayTime(s, zone);
+        List<byte[]> blobs = serializeRules(rulesList);
+        SortedMap<String, byte[]> regionRules = new TreeMap<String, byte[]>();
+        for (int regionId = 0; regionId < builtZones.length; regionId++) {
+            if (builtZones[regionId] != null) {
+                regionRules.put(regionIds.name(regionId), blobs.get(rulesIndex[regionId]));
             }
-            return false;
-        } else {
-            return true;
         }
+        return regionRules;
     }
 
     /**
-     * Parses a Rule line.
+     * Gets the aliases of the built regions.
      *
-     * @param s  the line scanner, not null
-     * @param mdt  the object to parse into, not null
-     */
-    private void parseMonthDayTime(Scanner s, TZDBMonthDayTime mdt) {
-        mdt.month = parseMonth(s);
-        if (s.hasNext()) {
-            String dayRule = s.next();
-            if (dayRule.startsWith("last")) {
-                mdt.dayOfMonth = -1;
-                mdt.dayOfWeek = parseDayOfWeek(dayRule.substring(4));
-                mdt.adjustForwards = false;
-            } else {
-                int index = dayRule.indexOf(">=");
-                if (index > 0) {
-                    mdt.dayOfWeek = parseDayOfWeek(dayRule.substring(0, index));
-                    dayRule = dayRule.substring(index + 2);
-                } else {
-                    index = dayRule.indexOf("<=");
-                    if (index > 0) {
-                        mdt.dayOfWeek = parseDayOfWeek(dayRule.substring(0, index));
-                        mdt.adjustForwards = false;
-                        dayRule = dayRule.substring(index + 2);
-                    }
-                }
-                mdt.dayOfMonth = Integer.parseInt(dayRule);
-            }
-            if (s.hasNext()) {
-                String timeStr = s.next();
-                int secsOfDay = parseSecs(timeStr);
-                if (secsOfDay == 86400) {
-                    mdt.endOfDay = true;
-                    secsOfDay = 0;
-                }
-                LocalTime time = LocalTime.ofSecondOfDay(secsOfDay);
-                mdt.time = time;
-                mdt.timeDefinition = parseTimeDefinition(timeStr.charAt(timeStr.length() - 1));
-            }
-        }
-    }
-
-    private int parseYear(Scanner s, int defaultYear) {
-        if (s.hasNext(YEAR.pattern())) {
-            s.next(YEAR.pattern());
-            MatchResult mr = s.match();
-            if (mr.group(1) != null) {
-                return 1900;  // systemv has min
-            } else if (mr.group(2) != null) {
-                return YEAR_MAX_VALUE;
-            } else if (mr.group(3) != null) {
-                return defaultYear;
-            }
-            return Integer.parseInt(mr.group(4));
-            /*
-            if (mr.group("min") != null) {
-                //return YEAR_MIN_VALUE;
-                return 1900;  // systemv has min
-            } else if (mr.group("max") != null) {
-                return YEAR_MAX_VALUE;
-            } else if (mr.group("only") != null) {
-                return defaultYear;
-            }
-            return Integer.parseInt(mr.group("year"));
-            */
-        }
-        throw new IllegalArgumentException("Unknown year: " + s.next());
-    }
-
-    private int parseMonth(Scanner s) {
-        if (s.hasNext(MONTH.pattern())) {
-            s.next(MONTH.pattern());
-            for (int moy = 1; moy < 13; moy++) {
-                if (s.match().group(moy) != null) {
-                    return moy;
-                }
-            }
+     * @return the target region IDs keyed by alias region ID, in the order first defined, not null
+     * @throws IllegalArgumentException if an alias links to a removed zone
+     */
+    private Map<String, String> aliases() {
+        Map<String, String> aliases = new LinkedHashMap<String, String>();
+        for (int aliasId : linkOrder) {
+             int realId = links[aliasId];
+             if (realId == -1) {
+                 continue;
+             }
+             if (builtZones[aliasId] == null || builtZones[realId] == null) {
+                 throw new IllegalArgumentException("Alias '" + regionIds.name(aliasId) +
+                         "' links to removed zone '" + regionIds.name(realId) + "'");
+             }
+             aliases.put(regionIds.name(aliasId), regionIds.name(realId));
         }
-        throw new IllegalArgumentException("Unknown month: " + s.next());
+        return aliases;
     }
 
-    private int parseDayOfWeek(String str) {
-        if (DOW.reset(str).matches()) {
-            for (int dow = 1; dow < 8; dow++) {
-                if (DOW.group(dow) != null) {
-                    return dow;
+    /**
+     * Adds the transitions of the last rules of the built zones until the end of a year.
+     *
+     * @param year  the last year to add the transitions of
+     */
+    private void expandTransitions(int year) {
+        Map<ZoneRules, ZoneRules> expanded = new HashMap<ZoneRules, ZoneRules>(builtZones.length * 2);
+        for (int regionId = 0; regionId < builtZones.length; regionId++) {
+            ZoneRules rules = builtZones[regionId];
+            if (rules != null) {
+                ZoneRules expandedRules = expanded.get(rules);
+                if (expandedRules == null) {
+                    expandedRules = rules.withTransitionsUntil(year);
+                    expanded.put(rules, expandedRules);
                 }
+                builtZones[regionId] = expandedRules;
             }
         }
-        throw new IllegalArgumentException("Unknown day-of-week: " + str);
-    }
-
-    private String parseOptional(String str) {
-        return str.equals("-") ? null : str;
+        printVerbose("Expanded the transitions of the last rules until " + year);
     }
 
-    private int parseSecs(String str) {
-        if (str.equals("-")) {
-            return 0;
+    /**
+     * Groups the built zones into classes agreeing on their offsets at every
+     * instant of a window of years, and reports them. If the rules are shared,
+     * the zones of a class, and their aliases, are given the rules of its first
+     * zone, so they share one rules blob in the output.
+     *
+     * @param version  the TZDB version, not null
+     * @param fromYear  the first year of the window
+     * @param toYear  the last year of the window, inclusive
+     */
+    private void clusterZones(String version, int fromYear, int toYear) {
+        long fromEpochSecond = LocalDateTime.of(fromYear, 1, 1, 0, 0).toEpochSecond(ZoneOffset.UTC);
+        long toEpochSecond = LocalDateTime.of(toYear + 1, 1, 1, 0, 0).toEpochSecond(ZoneOffset.UTC);
+        SortedMap<String, ZoneRules> zoneRules = new TreeMap<String, ZoneRules>();
+        for (int zoneId : zoneOrder) {
+            if (builtZones[zoneId] != null) {
+                zoneRules.put(regionIds.name(zoneId), builtZones[zoneId]);
+            }
         }
-        try {
-            if (TIME.reset(str).find()) {
-                int secs = Integer.parseInt(TIME.group("hour")) * 60 * 60;
-                if (TIME.group("minute") != null) {
-                    secs += Integer.parseInt(TIME.group("minute")) * 60;
-                }
-                if (TIME.group("second") != null) {
-                    secs += Integer.parseInt(TIME.group("second"));
-                }
-                if (TIME.group("neg") != null) {
-                    secs = -secs;
+        // a long buffer equals another with the same contents
+        Map<LongBuffer, List<String>> classes = new LinkedHashMap<LongBuffer, List<String>>();
+        for (Map.Entry<String, ZoneRules> entry : zoneRules.entrySet()) {
+            long[] offsets = entry.getValue().withTransitionsUntil(toYear)
+                    .offsetsBetween(fromEpochSecond, toEpochSecond);
+            LongBuffer key = LongBuffer.wrap(offsets);
+            List<String> members = classes.get(key);
+            if (members == null) {
+                members = new ArrayList<String>();
+                classes.put(key, members);
+            }
+            members.add(entry.getKey());
+        }
+        System.out.println("Zones of version " + version + " agreeing from " + fromYear + " to " + toYear +
+                ": " + zoneRules.size() + " zones in " + classes.size() + " classes");
+        Map<ZoneRules, ZoneRules> shared = new HashMap<ZoneRules, ZoneRules>(zoneRules.size() * 2);
+        for (List<String> members : classes.values()) {
+            ZoneRules first = zoneRules.get(members.get(0));
+            StringBuilder line = new StringBuilder("  ").append(members.get(0)).append(':');
+            shared.put(first, first);
+            for (int i = 1; i < members.size(); i++) {
+                shared.put(zoneRules.get(members.get(i)), first);
+                line.append(' ').append(members.get(i));
+            }
+            if (members.size() > 1) {
+                System.out.println(line);
+            }
+        }
+        if (clusterShare) {
+            for (int regionId = 0; regionId < builtZones.length; regionId++) {
+                if (builtZones[regionId] != null) {
+                    builtZones[regionId] = shared.get(builtZones[regionId]);
                 }
-                return secs;
             }
-        } catch (NumberFormatException x) {}
-        throw new IllegalArgumentException(str);
-    }
-
-    private ZoneOffset parseOffset(String str) {
-        int secs = parseSecs(str);
-        return ZoneOffset.ofTotalSeconds(secs);
+        }
     }
 
-    private int parsePeriod(String str) {
-        return parseSecs(str);
+    /**
+     * Parses a year.
+     *
+     * @return the year, null if invalid or out of range
+     */
+    private static Integer parseYear(String text) {
+        try {
+            int year = Integer.parseInt(text);
+            if (year >= YEAR_MIN_VALUE && year <= YEAR_MAX_VALUE) {
+                return year;
+            }
+        } catch (NumberFormatException ex) {
+            // invalid
+        }
+        return null;
     }
 
-    private TimeDefinition parseTimeDefinition(char c) {
-        switch (c) {
-            case 's':
-            case 'S':
-                // standard time
-                return TimeDefinition.STANDARD;
-            case 'u':
-            case 'U':
-            case 'g':
-            case 'G':
-            case 'z':
-            case 'Z':
-                // UTC
-                return TimeDefinition.UTC;
-            case 'w':
-            case 'W':
-            default:
-                // wall time
-                return TimeDefinition.WALL;
+    /**
+     * Parses a range of years, such as {@code 2016-2037}.
+     *
+     * @return the first and last years, null if invalid
+     */
+    private static int[] parseYearRange(String range) {
+        int index = range.indexOf('-', 1);
+        if (index > 0) {
+            try {
+                int fromYear = Integer.parseInt(range.substring(0, index));
+                int toYear = Integer.parseInt(range.substring(index + 1));
+                if (fromYear <= toYear) {
+                    return new int[] {fromYear, toYear};
+                }
+            } catch (NumberFormatException ex) {
+                // invalid
+            }
         }
+        return null;
     }
 
     /**
-     * Build the rules, zones and links into real zones.
+     * Collapses the transitions of the built zones before the start of a year,
+     * reporting the size of the distinct rules before and after.
      *
+     * @param version  the TZDB version, not null
+     * @param year  the first year of the history kept
      * @throws Exception if an error occurs
      */
-    private void buildZoneRules() throws Exception {
-        // build zones
-        for (String zoneId : zones.keySet()) {
-            printVerbose("Building zone " + zoneId);
-            List<TZDBZone> tzdbZones = zones.get(zoneId);
-            ZoneRulesBuilder bld = new ZoneRulesBuilder();
-            for (TZDBZone tzdbZone : tzdbZones) {
-                bld = tzdbZone.addToBuilder(bld, rules);
+    private void truncateHistory(String version, int year) throws Exception {
+        long epochSecond = LocalDateTime.of(year, 1, 1, 0, 0).toEpochSecond(ZoneOffset.UTC);
+        Map<ZoneRules, ZoneRules> truncated = new HashMap<ZoneRules, ZoneRules>(builtZones.length * 2);
+        for (ZoneRules rules : builtZones) {
+            if (rules != null && !truncated.containsKey(rules)) {
+                truncated.put(rules, rules.withHistoryFrom(epochSecond));
             }
-            builtZones.put(zoneId, bld.toRules(zoneId));
         }
-
-        // build aliases
-        for (String aliasId : links.keySet()) {
-            String realId = links.get(aliasId);
-            printVerbose("Linking alias " + aliasId + " to " + realId);
-            ZoneRules realRules = builtZones.get(realId);
-            if (realRules == null) {
-                realId = links.get(realId);  // try again (handle alias liked to alias)
-                printVerbose("Relinking alias " + aliasId + " to " + realId);
-                realRules = builtZones.get(realId);
-                if (realRules == null) {
-                    throw new IllegalArgumentException("Alias '" + aliasId + "' links to invalid zone '" + realId);
-                }
-                links.put(aliasId, realId);
+        List<ZoneRules> fullRules = new ArrayList<ZoneRules>(truncated.keySet());
+        List<ZoneRules> truncatedRules = new ArrayList<ZoneRules>(new HashSet<ZoneRules>(truncated.values()));
+        for (int regionId = 0; regionId < builtZones.length; regionId++) {
+            if (builtZones[regionId] != null) {
+                builtZones[regionId] = truncated.get(builtZones[regionId]);
             }
-            builtZones.put(aliasId, realRules);
         }
-        // remove UTC and GMT
-        // builtZones.remove("UTC");
-        // builtZones.remove("GMT");
-        // builtZones.remove("GMT0");
-        builtZones.remove("GMT+0");
-        builtZones.remove("GMT-0");
-        links.remove("GMT+0");
-        links.remove("GMT-0");
-        // remove ROC, which is not supported in j.u.tz
-        builtZones.remove("ROC");
-        links.remove("ROC");
-        // remove EST, HST and MST. They are supported via
-        // the short-id mapping
-        builtZones.remove("EST");
-        builtZones.remove("HST");
-        builtZones.remove("MST");
+        int fullBytes = serializedSize(fullRules);
+        int truncatedBytes = serializedSize(truncatedRules);
+        System.out.println("Removed history before " + year + " from version " + version + ": " +
+                fullRules.size() + " -> " + truncatedRules.size() + " distinct rules, " +
+                fullBytes + " -> " + truncatedBytes + " bytes, saved " +
+                (fullRules.size() - truncatedRules.size()) + " rules and " + (fullBytes - truncatedBytes) + " bytes");
     }
 
     /**
-     * Prints a verbose message.
-     *
-     * @param message  the message, not null
+     * Gets the size of rules in the output file, including the length of each.
      */
-    private void printVerbose(String message) {
-        if (verbose) {
-            System.out.println(message);
+    private int serializedSize(List<ZoneRules> rulesList) throws Exception {
+        int size = 0;
+        for (byte[] bytes : serializeRules(rulesList)) {
+            size += 2 + bytes.length;
         }
+        return size;
     }
 
     /**
-     * Class representing a month-day-time in the TZDB file.
+     * Serializes rules, concurrently if several threads are used.
+     *
+     * @param rulesList  the rules, not null
+     * @return the serialized rules, in the order of the rules, not null
+     * @throws Exception if an error occurs
      */
-    abstract class TZDBMonthDayTime {
-        /** The month of the cutover. */
-        int month = 1;
-        /** The day-of-month of the cutover. */
-        int dayOfMonth = 1;
-        /** Whether to adjust forwards. */
-        boolean adjustForwards = true;
-        /** The day-of-week of the cutover. */
-        int dayOfWeek = -1;
-        /** The time of the cutover. */
-        LocalTime time = LocalTime.MIDNIGHT;
-        /** Whether this is midnight end of day. */
-        boolean endOfDay;
-        /** The time of the cutover. */
-        TimeDefinition timeDefinition = TimeDefinition.WALL;
-        void adjustToFowards(int year) {
-            if (adjustForwards == false && dayOfMonth > 0) {
-                LocalDate adjustedDate = LocalDate.of(year, month, dayOfMonth).minusDays(6);
-                dayOfMonth = adjustedDate.getDayOfMonth();
-                month = adjustedDate.getMonth();
-                adjustForwards = true;
-            }
+    private List<byte[]> serializeRules(List<ZoneRules> rulesList) throws Exception {
+        List<Callable<byte[]>> tasks = new ArrayList<Callable<byte[]>>(rulesList.size());
+        for (final ZoneRules rules : rulesList) {
+            tasks.add(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws IOException {
+                    return serialize(rules);
+                }
+            });
         }
+        if (threads > 1 && tasks.size() > 1) {
+            return invokeAll(tasks);
+        }
+        List<byte[]> blobs = new ArrayList<byte[]>(tasks.size());
+        for (Callable<byte[]> task : tasks) {
+            blobs.add(task.call());
+        }
+        return blobs;
     }
 
     /**
-     * Class representing a rule line in the TZDB file.
+     * Serializes rules.
+     *
+     * @param rules  the rules, not null
+     * @return the serialized rules, not null
+     * @throws IOException if an error occurs
      */
-    final class TZDBRule extends TZDBMonthDayTime {
-        /** The start year. */
-        int startYear;
-        /** The end year. */
-        int endYear;
-        /** The amount of savings. */
-        int savingsAmount;
-        /** The text name of the zone. */
+    private static byte[] serialize(ZoneRules rules) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(1024);
+        DataOutputStream dataos = new DataOutputStream(baos);
+        rules.writeExternal(dataos);
+        dataos.close();
+        return baos.toByteArray();
+    }
+
+    private static final Pattern YEAR = Pattern.compile("(?i)(?<min>min)|(?<max>max)|(?<only>only)|(?<year>[0-9]+)");
+    private static final Pattern MONTH = Pattern.compile("(?i)(jan)|(feb)|(mar)|(apr)|(may)|(jun)|(jul)|(aug)|(sep)|(oct)|(nov)|(dec)");
+    private static final Pattern DOW = Pattern.compile("(?i)(mon)|(tue)|(wed)|(thu)|(fri)|(sat)|(sun)");
+    private static final Pattern TIME = Pattern.compile("(?<neg>-)?+(?<hour>[0-9]{1,2})(:(?<minute>[0-5][0-9]))?+(:(?<second>[0-5][0-9]))?+");
+
+    /** The first line of a file in the compact tzdata.zi format, followed by the version. */
+    private static final String COMPACT_HEADER = "# version ";
+    private static final String[] COMPACT_YEARS = {"minimum", "maximum", "only"};
+    private static final String[] COMPACT_MONTHS = {"January", "February", "March", "April", "May", "June",
+            "July", "August", "September", "October", "November", "December"};
+    private static final String[] COMPACT_DAYS = {"Monday", "Tuesday", "Wednesday", "Thursday",
+            "Friday", "Saturday", "Sunday"};
+
+    /** The rule names, interned to indices of the rules. */
+    private final TzdbSymbols ruleNames = new TzdbSymbols();
+
+    /** The region IDs of zones and links, interned to indices of the zones, links and built zones. */
+    private final TzdbSymbols regionIds = new TzdbSymbols();
+
+    /** The TZDB rules, indexed by rule name. */
+    private final List<List<TZDBRule>> rules = new ArrayList<List<TZDBRule>>();
+
+    /** The TZDB zones, indexed by region ID. */
+    private final List<List<TZDBZone>> zones = new ArrayList<List<TZDBZone>>();
+
+    /** The region IDs of the zones, in the order first defined. */
+    private final List<Integer> zoneOrder = new ArrayList<Integer>();
+
+    /** The TZDB links, the target region ID indexed by alias region ID, -1 if not an alias. */
+    private int[] links = new int[0];
+
+    /** The region IDs of the aliases, in the order first defined. */
+    private final List<Integer> linkOrder = new ArrayList<Integer>();
+
+    /** The built zones, indexed by region ID, null if not built or removed. */
+    private ZoneRules[] builtZones = new ZoneRules[0];
+
+    /** The expanded rules, shared by the zones using the same rules. */
+    private final ZoneRulesBuilder.RuleCache ruleCache = new ZoneRulesBuilder.RuleCache();
+
+    /** Whether to output verbose messages. */
+    private boolean verbose;
+
+    /** Whether to decode fields using the regex patterns instead of the hand-written decoders. */
+    private boolean regexFields;
+
+    /** The number of threads to use, zero if not specified. */
+    private int threads;
+
+    /** Whether to use the parse cache. */
+    private boolean cache;
+
+    /** The regions to compile, shared with the compilers of the other sources. */
+    private TzdbRegionFilter regionFilter = new TzdbRegionFilter();
+
+    /** The first year of the history kept, null to keep all of it. */
+    private Integer sinceYear;
+
+    /** The last year of the transitions added from the last rules, null to add none. */
+    private Integer expandUntilYear;
+
+    /** The first and last years of the window the zones are clustered over, null if not clustered. */
+    private int[] clusterYears;
+
+    /** Whether the zones of a cluster share the rules of its first zone in the output. */
+    private boolean clusterShare;
+
+    /** The snapshot of parsed source files, null if not used. */
+    private TzdbParseCache parseCache;
+
+    /** The snapshots of parsed source files keyed by file, shared with the compilers of the other sources. */
+    private Map<String, TzdbParseCache> parseCaches = new LinkedHashMap<String, TzdbParseCache>();
+
+    /**
+     * private contructor
+     */
+    private TzdbZoneRulesCompiler() {
+    }
+
+    /**
+     * Creates a compiler for another source, with the same options.
+     *
+     * @param options  the compiler to copy the options from, not null
+     */
+    private TzdbZoneRulesCompiler(TzdbZoneRulesCompiler options) {
+        this.verbose = options.verbose;
+        this.regexFields = options.regexFields;
+        this.threads = options.threads;
+        this.cache = options.cache;
+        this.parseCaches = options.parseCaches;
+        this.regionFilter = options.regionFilter;
+        this.sinceYear = options.sinceYear;
+        this.expandUntilYear = options.expandUntilYear;
+        this.clusterYears = options.clusterYears;
+        this.clusterShare = options.clusterShare;
+    }
+
+    /**
+     * A source of TZDB files, either a directory or an archive.
+     */
+    private static final class TZDBSource {
+        /** The source directory, null if an archive. */
+        final Path dir;
+        /** The source archive, null if a directory. */
+        final Path archive;
+
+        TZDBSource(Path dir, Path archive) {
+            this.dir = dir;
+            this.archive = archive;
+        }
+
+        /**
+         * Gets the directory of the source, where the default outputs are written.
+         *
+         * @return the source directory or the directory of the archive, not null
+         */
+        Path baseDir() {
+            return (dir != null ? dir : archive.getParent());
+        }
+    }
+
+    /**
+     * Parses the source files, merging the results in the order of the files
+     * so the rules, zones and links are the same as if parsed sequentially.
+     * <p>
+     * If the parse cache is used, the files found in it are read from it and
+     * the others are parsed and added to it.
+     *
+     * @param files  the source files, not null
+     * @throws Exception if an error occurs
+     */
+    private void parseFiles(List<TZDBFile> files) throws Exception {
+        List<TZDBFile> parsed = new ArrayList<TZDBFile>(files.size());
+        for (TZDBFile file : files) {
+            if (parseCache != null && file.readCached(parseCache)) {
+                printVerbose("Using cached file: " + file.name);
+            } else {
+                printVerbose("Parsing file: " + file.name);
+                parsed.add(file);
+            }
+        }
+        if (threads > 1 && parsed.size() > 1) {
+            invokeAll(parsed);
+        } else {
+            for (TZDBFile file : parsed) {
+                file.call();
+            }
+        }
+        if (parseCache != null) {
+            // the models are written before building, which adjusts them in place
+            for (TZDBFile file : parsed) {
+                parseCache.put(file.hash(), file.writeModel());
+            }
+        }
+        links = new int[regionIds.size()];
+        Arrays.fill(links, -1);
+        builtZones = new ZoneRules[regionIds.size()];
+        for (TZDBFile file : files) {
+            for (int ruleId = 0; ruleId < file.rules.size(); ruleId++) {
+                List<TZDBRule> fileRules = file.rules.get(ruleId);
+                if (fileRules != null) {
+                    List<TZDBRule> ruleList = getAt(rules, ruleId);
+                    if (ruleList == null) {
+                        setAt(rules, ruleId, fileRules);
+                    } else {
+                        ruleList.addAll(fileRules);
+                    }
+                }
+            }
+            for (int zoneId : file.zoneOrder) {
+                if (getAt(zones, zoneId) == null) {
+                    zoneOrder.add(zoneId);
+                }
+                setAt(zones, zoneId, file.zones.get(zoneId));
+            }
+            for (int aliasId : file.linkOrder) {
+                if (links[aliasId] == -1) {
+                    linkOrder.add(aliasId);
+                }
+                links[aliasId] = file.links.get(aliasId);
+            }
+        }
+    }
+
+    /**
+     * Gets an element of a list indexed by symbol ID.
+     *
+     * @return the element, null if the list is too short
+     */
+    private static <T> T getAt(List<T> list, int index) {
+        return index < list.size() ? list.get(index) : null;
+    }
+
+    /**
+     * Sets an element of a list indexed by symbol ID, growing the list with nulls as needed.
+     */
+    private static <T> void setAt(List<T> list, int index, T value) {
+        while (list.size() <= index) {
+            list.add(null);
+        }
+        list.set(index, value);
+    }
+
+    /**
+     * Packs three ASCII letters of a field, lower-cased, into an int
+     * so month and day-of-week names can be decoded with a switch.
+     * Characters outside ASCII never produce a valid key.
+     */
+    private static int lowerKey(TzdbTokenizer s, int field, int offset) {
+        int key = 0;
+        for (int i = offset; i < offset + 3; i++) {
+            char c = s.charAt(field, i);
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            } else if (c > 0x7f) {
+                return -1;
+            }
+            key = (key << 8) | c;
+        }
+        return key;
+    }
+
+    /**
+     * Finds the word abbreviated by part of a field, in the same way as zic
+     * matches the abbreviated names used by the compact tzdata.zi format.
+     * An abbreviation is a non-empty prefix of the word, ignoring case.
+     *
+     * @return the one-based index of the word, -1 if no word or several words match
+     */
+    private static int abbreviation(TzdbTokenizer s, int field, int from, int to, String[] words) {
+        int found = -1;
+        for (int i = 0; i < words.length; i++) {
+            if (abbreviates(s, field, from, to, words[i])) {
+                if (found != -1) {
+                    return -1;  // ambiguous
+                }
+                found = i + 1;
+            }
+        }
+        return found;
+    }
+
+    private static boolean abbreviates(TzdbTokenizer s, int field, int from, int to, String word) {
+        if (to <= from || to - from > word.length()) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            char c1 = s.charAt(field, i);
+            char c2 = word.charAt(i - from);
+            if (c1 != c2 && Character.toLowerCase(c1) != Character.toLowerCase(c2)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeNullableUTF(DataOutput out, String str) throws IOException {
+        out.writeBoolean(str != null);
+        if (str != null) {
+            out.writeUTF(str);
+        }
+    }
+
+    private static String readNullableUTF(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /** Checks for {@code :[0-5][0-9]} at the offset. */
+    private static boolean isSexagesimal(TzdbTokenizer s, int field, int offset) {
+        if (offset + 3 > s.length(field) || s.charAt(field, offset) != ':') {
+            return false;
+        }
+        char tens = s.charAt(field, offset + 1);
+        return tens >= '0' && tens <= '5' && isDigit(s.charAt(field, offset + 2));
+    }
+
+    private static int sexagesimal(TzdbTokenizer s, int field, int offset) {
+        return (s.charAt(field, offset + 1) - '0') * 10 + (s.charAt(field, offset + 2) - '0');
+    }
+
+    /**
+     * Runs tasks on a pool of up to {@code threads} threads.
+     *
+     * @param tasks  the tasks, in the order to start them, not null
+     * @return the results, in the order of the tasks, not null
+     * @throws Exception the first exception thrown by a task, in the order of the tasks
+     */
+    private <T> List<T> invokeAll(List<? extends Callable<T>> tasks) throws Exception {
+        List<T> results = new ArrayList<T>(tasks.size());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, tasks.size()));
+        try {
+            for (Future<T> future : executor.invokeAll(tasks)) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    throw cause instanceof Exception ? (Exception) cause : ex;
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return results;
+    }
+
+    /**
+     * Build the rules, zones and links into real zones.
+     * <p>
+     * With several threads the zones are built concurrently, starting with
+     * those having the most zone and rule lines, as the longest histories take
+     * the longest to build. Each zone is stored by its region ID, so the result
+     * does not depend on the number of threads.
+     *
+     * @throws Exception if an error occurs
+     */
+    private void buildZoneRules() throws Exception {
+        // the rules are shared by the zones, so adjust them before building
+        for (List<TZDBRule> ruleList : rules) {
+            if (ruleList != null) {
+                for (TZDBRule tzdbRule : ruleList) {
+                    tzdbRule.adjustToFowards(2004);  // irrelevant, treat as leap year
+                }
+            }
+        }
+
+        // select zones, the others are not built
+        List<Integer> buildOrder = zoneOrder;
+        if (!regionFilter.isEmpty()) {
+            buildOrder = new ArrayList<Integer>(zoneOrder.size());
+            for (int zoneId : zoneOrder) {
+                if (regionFilter.accepts(regionIds.name(zoneId))) {
+                    buildOrder.add(zoneId);
+                }
+            }
+            printVerbose("Selected " + buildOrder.size() + " of " + zoneOrder.size() + " zones");
+        }
+
+        // build zones
+        if (threads > 1 && buildOrder.size() > 1) {
+            List<ZoneTask> tasks = new ArrayList<ZoneTask>(buildOrder.size());
+            for (int zoneId : buildOrder) {
+                tasks.add(new ZoneTask(zoneId));
+            }
+            Collections.sort(tasks, new Comparator<ZoneTask>() {
+                @Override
+                public int compare(ZoneTask task1, ZoneTask task2) {
+                    return task2.weight - task1.weight;  // heaviest first, stable for ties
+                }
+            });
+            for (int zoneId : buildOrder) {
+                printVerbose("Building zone " + regionIds.name(zoneId));
+            }
+            List<ZoneRules> results = invokeAll(tasks);
+            for (int i = 0; i < tasks.size(); i++) {
+                builtZones[tasks.get(i).zoneId] = results.get(i);
+            }
+        } else {
+            for (int zoneId : buildOrder) {
+                printVerbose("Building zone " + regionIds.name(zoneId));
+                builtZones[zoneId] = buildZone(zoneId);
+            }
+        }
+        printVerbose("Expanded " + ruleCache.size() + " distinct rule sets");
+
+        // build aliases, keeping those of the selected zones
+        List<Integer> prunedAliases = new ArrayList<Integer>();
+        for (int aliasId : linkOrder) {
+            int realId = links[aliasId];
+            printVerbose("Linking alias " + regionIds.name(aliasId) + " to " + regionIds.name(realId));
+            ZoneRules realRules = builtZones[realId];
+            if (realRules == null && getAt(zones, realId) == null) {
+                int linkedId = links[realId];  // try again (handle alias liked to alias)
+                if (linkedId == -1) {
+                    throw new IllegalArgumentException("Alias '" + regionIds.name(aliasId) + "' links to invalid zone '" + regionIds.name(realId));
+                }
+                realId = linkedId;
+                printVerbose("Relinking alias " + regionIds.name(aliasId) + " to " + regionIds.name(realId));
+                realRules = builtZones[realId];
+                if (realRules == null && getAt(zones, realId) == null) {
+                    throw new IllegalArgumentException("Alias '" + regionIds.name(aliasId) + "' links to invalid zone '" + regionIds.name(realId));
+                }
+                links[aliasId] = realId;
+            }
+            if (regionFilter.isExcluded(regionIds.name(aliasId))) {
+                prunedAliases.add(aliasId);
+            } else if (realRules == null) {
+                if (regionFilter.isIncluded(regionIds.name(aliasId))) {
+                    throw new IllegalArgumentException("Alias '" + regionIds.name(aliasId) +
+                            "' is included but links to zone '" + regionIds.name(realId) +
+                            "', which is not, include or exclude both");
+                }
+                prunedAliases.add(aliasId);
+            } else {
+                builtZones[aliasId] = realRules;
+            }
+        }
+        for (int aliasId : prunedAliases) {
+            links[aliasId] = -1;
+        }
+        if (!regionFilter.isEmpty()) {
+            printVerbose("Pruned " + (zoneOrder.size() - buildOrder.size()) + " zones and " +
+                    prunedAliases.size() + " aliases");
+        }
+        // remove UTC and GMT
+        // removeRegion("UTC");
+        // removeRegion("GMT");
+        // removeRegion("GMT0");
+        removeRegion("GMT+0", true);
+        removeRegion("GMT-0", true);
+        // remove ROC, which is not supported in j.u.tz
+        removeRegion("ROC", true);
+        // remove EST, HST and MST. They are supported via
+        // the short-id mapping, and also links since tzdata 2024b
+        removeRegion("EST", true);
+        removeRegion("HST", true);
+        removeRegion("MST", true);
+    }
+
+    /**
+     * Builds a zone.
+     * <p>
+     * This only reads the shared state, so zones can be built concurrently.
+     *
+     * @param zoneId  the region ID of the zone
+     * @return the zone rules, not null
+     */
+    private ZoneRules buildZone(int zoneId) {
+        ZoneRulesBuilder bld = new ZoneRulesBuilder(ruleCache);
+        for (TZDBZone tzdbZone : zones.get(zoneId)) {
+            bld = tzdbZone.addToBuilder(bld, rules);
+        }
+        return bld.toRules(regionIds.name(zoneId));
+    }
+
+    /**
+     * A task building a zone.
+     */
+    private final class ZoneTask implements Callable<ZoneRules> {
+        /** The region ID of the zone. */
+        final int zoneId;
+        /** The estimated cost of building the zone, the number of zone and rule lines. */
+        final int weight;
+
+        ZoneTask(int zoneId) {
+            this.zoneId = zoneId;
+            int lines = 0;
+            for (TZDBZone tzdbZone : zones.get(zoneId)) {
+                lines++;
+                if (tzdbZone.savingsRule != -1) {
+                    List<TZDBRule> tzdbRules = getAt(rules, tzdbZone.savingsRule);
+                    lines += (tzdbRules != null ? tzdbRules.size() : 0);
+                }
+            }
+            this.weight = lines;
+        }
+
+        @Override
+        public ZoneRules call() {
+            return buildZone(zoneId);
+        }
+    }
+
+    /**
+     * Removes a built zone and, optionally, its link.
+     *
+     * @param regionId  the region ID, not null
+     * @param link  whether to also remove the link if the region is an alias
+     */
+    private void removeRegion(String regionId, boolean link) {
+        int id = regionIds.id(regionId);
+        if (id != -1) {
+            builtZones[id] = null;
+            if (link) {
+                links[id] = -1;
+            }
+        }
+    }
+
+    /**
+     * Prints a verbose message.
+     *
+     * @param message  the message, not null
+     */
+    private void printVerbose(String message) {
+        if (verbose) {
+            System.out.println(message);
+        }
+    }
+
+    /**
+     * Class representing a month-day-time in the TZDB file.
+     */
+    abstract class TZDBMonthDayTime {
+        /** The month of the cutover. */
+        int month = 1;
+        /** The day-of-month of the cutover. */
+        int dayOfMonth = 1;
+        /** Whether to adjust forwards. */
+        boolean adjustForwards = true;
+        /** The day-of-week of the cutover. */
+        int dayOfWeek = -1;
+        /** The time of the cutover. */
+        LocalTime time = LocalTime.MIDNIGHT;
+        /** Whether this is midnight end of day. */
+        boolean endOfDay;
+        /** The time of the cutover. */
+        TimeDefinition timeDefinition = TimeDefinition.WALL;
+        void writeExternal(DataOutput out) throws IOException {
+            out.writeByte(month);
+            out.writeByte(dayOfMonth);
+            out.writeBoolean(adjustForwards);
+            out.writeByte(dayOfWeek);
+            out.writeInt(time.toSecondOfDay());
+            out.writeBoolean(endOfDay);
+            out.writeByte(timeDefinition.ordinal());
+        }
+        void readExternal(DataInput in) throws IOException {
+            month = in.readByte();
+            dayOfMonth = in.readByte();
+            adjustForwards = in.readBoolean();
+            dayOfWeek = in.readByte();
+            time = LocalTime.ofSecondOfDay(in.readInt());
+            endOfDay = in.readBoolean();
+            timeDefinition = TimeDefinition.values()[in.readByte()];
+        }
+        void adjustToFowards(int year) {
+            if (adjustForwards == false && dayOfMonth > 0) {
+                LocalDate adjustedDate = LocalDate.of(year, month, dayOfMonth).minusDays(6);
+                dayOfMonth = adjustedDate.getDayOfMonth();
+                month = adjustedDate.getMonth();
+                adjustForwards = true;
+            }
+        }
+    }
+
+    /**
+     * Class representing a rule line in the TZDB file.
+     */
+    final class TZDBRule extends TZDBMonthDayTime {
+        /** The start year. */
+        int startYear;
+        /** The end year. */
+        int endYear;
+        /** The amount of savings. */
+        int savingsAmount;
+        /** The text name of the zone. */
         String text;
 
+        @Override
+        void writeExternal(DataOutput out) throws IOException {
+            super.writeExternal(out);
+            out.writeInt(startYear);
+            out.writeInt(endYear);
+            out.writeInt(savingsAmount);
+            writeNullableUTF(out, text);
+        }
+
+        @Override
+        void readExternal(DataInput in) throws IOException {
+            super.readExternal(in);
+            startYear = in.readInt();
+            endYear = in.readInt();
+            savingsAmount = in.readInt();
+            text = readNullableUTF(in);
+        }
+
         void addToBuilder(ZoneRulesBuilder bld) {
-            adjustToFowards(2004);  // irrelevant, treat as leap year
             bld.addRuleToWindow(startYear, endYear, month, dayOfMonth, dayOfWeek, time, endOfDay, timeDefinition, savingsAmount);
         }
     }
@@ -696,14 +1370,38 @@ public final class TzdbZoneRulesCompiler {
         ZoneOffset standardOffset;
         /** The fixed savings amount. */
         Integer fixedSavingsSecs;
-        /** The savings rule. */
-        String savingsRule;
+        /** The savings rule name ID, -1 if fixed savings. */
+        int savingsRule = -1;
         /** The text name of the zone. */
         String text;
         /** The year of the cutover. */
         int year = YEAR_MAX_VALUE;
 
-        ZoneRulesBuilder addToBuilder(ZoneRulesBuilder bld, Map<String, List<TZDBRule>> rules) {
+        @Override
+        void writeExternal(DataOutput out) throws IOException {
+            super.writeExternal(out);
+            out.writeInt(standardOffset.getTotalSeconds());
+            out.writeBoolean(fixedSavingsSecs != null);
+            if (fixedSavingsSecs != null) {
+                out.writeInt(fixedSavingsSecs);
+            }
+            writeNullableUTF(out, savingsRule != -1 ? ruleNames.name(savingsRule) : null);
+            out.writeUTF(text);
+            out.writeInt(year);
+        }
+
+        @Override
+        void readExternal(DataInput in) throws IOException {
+            super.readExternal(in);
+            standardOffset = ZoneOffset.ofTotalSeconds(in.readInt());
+            fixedSavingsSecs = in.readBoolean() ? Integer.valueOf(in.readInt()) : null;
+            String savingsRuleName = readNullableUTF(in);
+            savingsRule = (savingsRuleName != null ? ruleNames.intern(savingsRuleName) : -1);
+            text = in.readUTF();
+            year = in.readInt();
+        }
+
+        ZoneRulesBuilder addToBuilder(ZoneRulesBuilder bld, List<List<TZDBRule>> rules) {
             if (year != YEAR_MAX_VALUE) {
                 bld.addWindow(standardOffset, toDateTime(year), timeDefinition);
             } else {
@@ -712,9 +1410,9 @@ public final class TzdbZoneRulesCompiler {
             if (fixedSavingsSecs != null) {
                 bld.setFixedSavingsToWindow(fixedSavingsSecs);
             } else {
-                List<TZDBRule> tzdbRules = rules.get(savingsRule);
+                List<TZDBRule> tzdbRules = getAt(rules, savingsRule);
                 if (tzdbRules == null) {
-                    throw new IllegalArgumentException("Rule not found: " + savingsRule);
+                    throw new IllegalArgumentException("Rule not found: " + ruleNames.name(savingsRule));
                 }
                 for (TZDBRule tzdbRule : tzdbRules) {
                     tzdbRule.addToBuilder(bld);
@@ -725,24 +1423,660 @@ public final class TzdbZoneRulesCompiler {
 
         private LocalDateTime toDateTime(int year) {
             adjustToFowards(year);
-            LocalDate date;
+            long epochDay;
             if (dayOfMonth == -1) {
                 dayOfMonth = lengthOfMonth(month, isLeapYear(year));
-                date = LocalDate.of(year, month, dayOfMonth);
-                if (dayOfWeek != -1) {
-                    date = previousOrSame(date, dayOfWeek);
-                }
+                epochDay = adjustedEpochDay(year, month, dayOfMonth, dayOfWeek, true);
             } else {
-                date = LocalDate.of(year, month, dayOfMonth);
-                if (dayOfWeek != -1) {
-                    date = nextOrSame(date, dayOfWeek);
-                }
+                epochDay = adjustedEpochDay(year, month, dayOfMonth, dayOfWeek, false);
             }
-            LocalDateTime ldt = LocalDateTime.of(date, time);
+            LocalDateTime ldt = LocalDateTime.of(LocalDate.ofEpochDay(epochDay), time);
             if (endOfDay) {
                 ldt = ldt.plusDays(1);
             }
             return ldt;
         }
     }
+
+    /**
+     * Class representing the rules, zones and links parsed from one TZDB file.
+     * <p>
+     * Each file is parsed independently, with its own tokenizer and matchers,
+     * so that several files can be parsed concurrently. The results are
+     * merged into the compiler in command-line order.
+     * <p>
+     * A file starting with a {@code # version} line is parsed in the compact
+     * tzdata.zi format: it has no trailing comments, keywords, years, months and
+     * days-of-week may be abbreviated and continuation lines are not indented.
+     */
+    final class TZDBFile implements Callable<TZDBFile> {
+        /** The name of the source file, used in messages, not null. */
+        final String name;
+        /** The source file, null if parsing in-memory data. */
+        private final Path file;
+        /** The contents of the source file, null if parsing from the file system. */
+        private final byte[] data;
+        /** The TZDB rules, indexed by rule name, null for the rules not in this file. */
+        final List<List<TZDBRule>> rules = new ArrayList<List<TZDBRule>>();
+        /** The TZDB zones, indexed by region ID, null for the zones not in this file. */
+        final List<List<TZDBZone>> zones = new ArrayList<List<TZDBZone>>();
+        /** The region IDs of the zones, in the order first defined. */
+        final List<Integer> zoneOrder = new ArrayList<Integer>();
+        /** The TZDB links, the target region ID indexed by alias region ID, null if not an alias. */
+        final List<Integer> links = new ArrayList<Integer>();
+        /** The region IDs of the aliases, in the order first defined. */
+        final List<Integer> linkOrder = new ArrayList<Integer>();
+        /** The tokenizer reused for every source line. */
+        private final TzdbTokenizer tokenizer = new TzdbTokenizer();
+        /** The day-of-week matcher, only used to decode regex fields. */
+        private final Matcher dowMatcher = DOW.matcher("");
+        /** The time matcher, only used to decode regex fields. */
+        private final Matcher timeMatcher = TIME.matcher("");
+        /** Whether the file is in the compact tzdata.zi format. */
+        private boolean compact;
+        /** The version from the tzdata.zi header, null if not in the compact format. */
+        String version;
+        /** The contents of the source file, null until first needed. */
+        private ByteBuffer contents;
+        /** The hash of the contents, null until first needed. */
+        private String hash;
+
+        TZDBFile(Path file) {
+            this.name = file.toString();
+            this.file = file;
+            this.data = null;
+        }
+
+        TZDBFile(String name, byte[] data) {
+            this.name = name;
+            this.file = null;
+            this.data = data;
+        }
+
+        @Override
+        public TZDBFile call() throws Exception {
+            parseFile();
+            return this;
+        }
+
+        private ByteBuffer contents() throws IOException {
+            if (contents == null) {
+                contents = (data != null ? ByteBuffer.wrap(data) : Files.map(file));
+            }
+            return contents;
+        }
+
+        /**
+         * Gets the hash of the contents of the source file.
+         *
+         * @return the hash, not null
+         * @throws IOException if the file cannot be read
+         */
+        String hash() throws IOException {
+            if (hash == null) {
+                hash = TzdbParseCache.hash(contents());
+            }
+            return hash;
+        }
+
+        /**
+         * Reads the model of this file from the parse cache instead of parsing it.
+         *
+         * @param cache  the parse cache, not null
+         * @return true if the model was read, false if the file must be parsed
+         * @throws IOException if the file cannot be read
+         */
+        boolean readCached(TzdbParseCache cache) throws IOException {
+            byte[] model = cache.get(hash());
+            if (model == null) {
+                return false;
+            }
+            try {
+                readModel(model);
+                return true;
+            } catch (Exception ex) {
+                printVerbose("Ignoring invalid cached file: " + name + ", " + ex);
+                version = null;
+                rules.clear();
+                zones.clear();
+                zoneOrder.clear();
+                links.clear();
+                linkOrder.clear();
+                return false;
+            }
+        }
+
+        /**
+         * Writes the model parsed from this file, which must not have been built yet.
+         *
+         * @return the model in the form read by {@link #readModel}, not null
+         * @throws IOException if an error occurs
+         */
+        byte[] writeModel() throws IOException {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(8192);
+            DataOutputStream out = new DataOutputStream(baos);
+            writeNullableUTF(out, version);
+            int ruleCount = 0;
+            for (List<TZDBRule> ruleList : rules) {
+                if (ruleList != null) {
+                    ruleCount++;
+                }
+            }
+            out.writeInt(ruleCount);
+            for (int ruleId = 0; ruleId < rules.size(); ruleId++) {
+                List<TZDBRule> ruleList = rules.get(ruleId);
+                if (ruleList != null) {
+                    out.writeUTF(ruleNames.name(ruleId));
+                    out.writeInt(ruleList.size());
+                    for (TZDBRule rule : ruleList) {
+                        rule.writeExternal(out);
+                    }
+                }
+            }
+            out.writeInt(zoneOrder.size());
+            for (int zoneId : zoneOrder) {
+                out.writeUTF(regionIds.name(zoneId));
+                out.writeInt(zones.get(zoneId).size());
+                for (TZDBZone zone : zones.get(zoneId)) {
+                    zone.writeExternal(out);
+                }
+            }
+            out.writeInt(linkOrder.size());
+            for (int aliasId : linkOrder) {
+                out.writeUTF(regionIds.name(aliasId));
+                out.writeUTF(regionIds.name(links.get(aliasId)));
+            }
+            out.close();
+            return baos.toByteArray();
+        }
+
+        private void readModel(byte[] model) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(model));
+            version = readNullableUTF(in);
+            int ruleCount = in.readInt();
+            for (int i = 0; i < ruleCount; i++) {
+                List<TZDBRule> ruleList = ruleList(ruleNames.intern(in.readUTF()));
+                for (int j = in.readInt(); j > 0; j--) {
+                    TZDBRule rule = new TZDBRule();
+                    rule.readExternal(in);
+                    ruleList.add(rule);
+                }
+            }
+            int zoneCount = in.readInt();
+            for (int i = 0; i < zoneCount; i++) {
+                int zoneId = regionIds.intern(in.readUTF());
+                List<TZDBZone> zoneList = new ArrayList<TZDBZone>();
+                for (int j = in.readInt(); j > 0; j--) {
+                    TZDBZone zone = new TZDBZone();
+                    zone.readExternal(in);
+                    zoneList.add(zone);
+                }
+                putZone(zoneId, zoneList);
+            }
+            int linkCount = in.readInt();
+            for (int i = 0; i < linkCount; i++) {
+                int aliasId = regionIds.intern(in.readUTF());
+                putLink(aliasId, regionIds.intern(in.readUTF()));
+            }
+        }
+
+        /**
+         * Gets the rules of a rule name, adding an empty list if the name is new to this file.
+         *
+         * @param ruleId  the rule name ID
+         * @return the rules, not null
+         */
+        private List<TZDBRule> ruleList(int ruleId) {
+            List<TZDBRule> ruleList = getAt(rules, ruleId);
+            if (ruleList == null) {
+                ruleList = new ArrayList<TZDBRule>();
+                setAt(rules, ruleId, ruleList);
+            }
+            return ruleList;
+        }
+
+        /**
+         * Puts a zone, replacing any earlier zone with the same ID but keeping its position.
+         */
+        private void putZone(int zoneId, List<TZDBZone> zoneList) {
+            if (getAt(zones, zoneId) == null) {
+                zoneOrder.add(zoneId);
+            }
+            setAt(zones, zoneId, zoneList);
+        }
+
+        /**
+         * Puts a link, replacing any earlier link of the same alias but keeping its position.
+         */
+        private void putLink(int aliasId, int realId) {
+            if (getAt(links, aliasId) == null) {
+                linkOrder.add(aliasId);
+            }
+            setAt(links, aliasId, realId);
+        }
+
+        /**
+         * Parses the source file.
+         *
+         * @throws Exception if an error occurs
+         */
+        private void parseFile() throws Exception {
+            int lineNumber = 1;
+            MappedLineReader lines = null;
+            try {
+                lines = new MappedLineReader(contents());
+                if (lines.readLine()) {  // the first line is skipped, as in upstream
+                    String header = lines.toString();
+                    if (header.startsWith(COMPACT_HEADER)) {
+                        compact = true;
+                        version = header.substring(COMPACT_HEADER.length()).trim();
+                    }
+                }
+                List<TZDBZone> openZone = null;
+                for (; lines.readLine(); lineNumber++) {
+                    TzdbTokenizer s = tokenizer;
+                    if (!s.reset(lines, !compact)) {  // ignore blank lines and comments
+                        continue;
+                    }
+                    if (openZone != null && (compact || s.isIndented())) {
+                        if (parseZoneLine(s, openZone)) {
+                            openZone = null;
+                        }
+                    } else {
+                        int first = s.next();
+                        if (isKeyword(s, first, "Zone")) {
+                            openZone = new ArrayList<TZDBZone>();
+                            try {
+                                putZone(regionIds.intern(s.get(s.next())), openZone);
+                                if (parseZoneLine(s, openZone)) {
+                                    openZone = null;
+                                }
+                            } catch (NoSuchElementException x) {
+                                printVerbose("Invalid Zone line in file: " + name + ", line: " + s);
+                                throw new IllegalArgumentException("Invalid Zone line");
+                            }
+                        } else {
+                            openZone = null;
+                            if (isKeyword(s, first, "Rule")) {
+                                try {
+                                    parseRuleLine(s);
+                                } catch (NoSuchElementException x) {
+                                    printVerbose("Invalid Rule line in file: " + name + ", line: " + s);
+                                    throw new IllegalArgumentException("Invalid Rule line");
+                                }
+                            } else if (isKeyword(s, first, "Link")) {
+                                try {
+                                    int realId = regionIds.intern(s.get(s.next()));
+                                    int aliasId = regionIds.intern(s.get(s.next()));
+                                    putLink(aliasId, realId);
+                                } catch (NoSuchElementException x) {
+                                    printVerbose("Invalid Link line in file: " + name + ", line: " + s);
+                                    throw new IllegalArgumentException("Invalid Link line");
+                                }
+
+                            } else {
+                                throw new IllegalArgumentException("Unknown line");
+                            }
+                        }
+                    }
+                }
+            } catch (Exception ex) {
+                throw new Exception("Failed while parsing file '" + name + "' on line " + lineNumber + " '" + lines + "'", ex);
+            }
+        }
+
+        /**
+         * Checks if a field is the keyword of a line, which may be
+         * abbreviated in the compact format.
+         *
+         * @param s  the line tokenizer, not null
+         * @param field  the field index
+         * @param keyword  the keyword, not null
+         * @return true if the field is the keyword
+         */
+        private boolean isKeyword(TzdbTokenizer s, int field, String keyword) {
+            if (compact) {
+                return abbreviates(s, field, 0, s.length(field), keyword);
+            }
+            return s.equals(field, keyword);
+        }
+
+        /**
+         * Parses a Rule line.
+         *
+         * @param s  the line tokenizer, not null
+         */
+        private void parseRuleLine(TzdbTokenizer s) {
+            TZDBRule rule = new TZDBRule();
+            ruleList(ruleNames.intern(s.get(s.next()))).add(rule);
+            rule.startYear = parseYear(s, s.next(), 0);
+            rule.endYear = parseYear(s, s.next(), rule.startYear);
+            if (rule.startYear > rule.endYear) {
+                throw new IllegalArgumentException("Year order invalid: " + rule.startYear + " > " + rule.endYear);
+            }
+            s.next();  // type is unused
+            parseMonthDayTime(s, rule);
+            rule.savingsAmount = parsePeriod(s, s.next());
+            rule.text = parseOptional(s, s.next());
+        }
+
+        /**
+         * Parses a Zone line.
+         *
+         * @param s  the line tokenizer, not null
+         * @return true if the zone is complete
+         */
+        private boolean parseZoneLine(TzdbTokenizer s, List<TZDBZone> zoneList) {
+            TZDBZone zone = new TZDBZone();
+            zoneList.add(zone);
+            zone.standardOffset = parseOffset(s, s.next());
+            int savingsRule = s.next();
+            if (s.equals(savingsRule, "-")) {
+                zone.fixedSavingsSecs = 0;
+                zone.savingsRule = -1;
+            } else {
+                int savingsSecs = decodeSecs(s, savingsRule);
+                if (savingsSecs != NO_TIME) {
+                    zone.fixedSavingsSecs = savingsSecs;
+                    zone.savingsRule = -1;
+                } else {
+                    zone.fixedSavingsSecs = null;
+                    zone.savingsRule = ruleNames.intern(s.get(savingsRule));
+                }
+            }
+            zone.text = s.get(s.next());
+            if (s.hasNext()) {
+                zone.year = s.parseInt(s.next());
+                if (s.hasNext()) {
+                    parseMonthDayTime(s, zone);
+                }
+                return false;
+            } else {
+                return true;
+            }
+        }
+
+        /**
+         * Parses a Rule line.
+         *
+         * @param s  the line tokenizer, not null
+         * @param mdt  the object to parse into, not null
+         */
+        private void parseMonthDayTime(TzdbTokenizer s, TZDBMonthDayTime mdt) {
+            mdt.month = parseMonth(s, s.next());
+            if (s.hasNext()) {
+                int dayRule = s.next();
+                if (s.startsWith(dayRule, "last")) {
+                    mdt.dayOfMonth = -1;
+                    mdt.dayOfWeek = parseDayOfWeek(s, dayRule, 4, s.length(dayRule));
+                    mdt.adjustForwards = false;
+                } else {
+                    int dayOffset = 0;
+                    int index = s.indexOf(dayRule, ">=");
+                    if (index > 0) {
+                        mdt.dayOfWeek = parseDayOfWeek(s, dayRule, 0, index);
+                        dayOffset = index + 2;
+                    } else {
+                        index = s.indexOf(dayRule, "<=");
+                        if (index > 0) {
+                            mdt.dayOfWeek = parseDayOfWeek(s, dayRule, 0, index);
+                            mdt.adjustForwards = false;
+                            dayOffset = index + 2;
+                        }
+                    }
+                    mdt.dayOfMonth = s.parseInt(dayRule, dayOffset);
+                }
+                if (s.hasNext()) {
+                    int timeField = s.next();
+                    int secsOfDay = parseSecs(s, timeField);
+                    if (secsOfDay == 86400) {
+                        mdt.endOfDay = true;
+                        secsOfDay = 0;
+                    }
+                    LocalTime time = LocalTime.ofSecondOfDay(secsOfDay);
+                    mdt.time = time;
+                    mdt.timeDefinition = parseTimeDefinition(s.charAt(timeField, s.length(timeField) - 1));
+                }
+            }
+        }
+
+        private int parseYear(TzdbTokenizer s, int field, int defaultYear) {
+            if (compact && !s.isDigits(field)) {
+                switch (abbreviation(s, field, 0, s.length(field), COMPACT_YEARS)) {
+                    case 1: return 1900;  // systemv has min
+                    case 2: return YEAR_MAX_VALUE;
+                    case 3: return defaultYear;
+                }
+                throw new IllegalArgumentException("Unknown year: " + s.get(field));
+            }
+            if (regexFields) {
+                return parseYear(s.get(field), defaultYear);
+            }
+            switch (s.length(field)) {
+                case 3:
+                    if (s.equalsIgnoreCase(field, "min")) {
+                        return 1900;  // systemv has min
+                    } else if (s.equalsIgnoreCase(field, "max")) {
+                        return YEAR_MAX_VALUE;
+                    }
+                    break;
+                case 4:
+                    if (s.equalsIgnoreCase(field, "only")) {
+                        return defaultYear;
+                    }
+                    break;
+            }
+            if (s.isDigits(field)) {
+                return s.parseInt(field);
+            }
+            throw new IllegalArgumentException("Unknown year: " + s.get(field));
+        }
+
+        private int parseYear(String str, int defaultYear) {
+            Matcher mr = YEAR.matcher(str);
+            if (mr.matches()) {
+                if (mr.group("min") != null) {
+                    //return YEAR_MIN_VALUE;
+                    return 1900;  // systemv has min
+                } else if (mr.group("max") != null) {
+                    return YEAR_MAX_VALUE;
+                } else if (mr.group("only") != null) {
+                    return defaultYear;
+                }
+                return Integer.parseInt(mr.group("year"));
+            }
+            throw new IllegalArgumentException("Unknown year: " + str);
+        }
+
+        private int parseMonth(TzdbTokenizer s, int field) {
+            if (compact) {
+                int moy = abbreviation(s, field, 0, s.length(field), COMPACT_MONTHS);
+                if (moy > 0) {
+                    return moy;
+                }
+                throw new IllegalArgumentException("Unknown month: " + s.get(field));
+            }
+            if (regexFields) {
+                return parseMonth(s.get(field));
+            }
+            if (s.length(field) == 3) {
+                switch (lowerKey(s, field, 0)) {
+                    case ('j' << 16) | ('a' << 8) | 'n': return 1;
+                    case ('f' << 16) | ('e' << 8) | 'b': return 2;
+                    case ('m' << 16) | ('a' << 8) | 'r': return 3;
+                    case ('a' << 16) | ('p' << 8) | 'r': return 4;
+                    case ('m' << 16) | ('a' << 8) | 'y': return 5;
+                    case ('j' << 16) | ('u' << 8) | 'n': return 6;
+                    case ('j' << 16) | ('u' << 8) | 'l': return 7;
+                    case ('a' << 16) | ('u' << 8) | 'g': return 8;
+                    case ('s' << 16) | ('e' << 8) | 'p': return 9;
+                    case ('o' << 16) | ('c' << 8) | 't': return 10;
+                    case ('n' << 16) | ('o' << 8) | 'v': return 11;
+                    case ('d' << 16) | ('e' << 8) | 'c': return 12;
+                }
+            }
+            throw new IllegalArgumentException("Unknown month: " + s.get(field));
+        }
+
+        private int parseMonth(String str) {
+            Matcher mr = MONTH.matcher(str);
+            if (mr.matches()) {
+                for (int moy = 1; moy < 13; moy++) {
+                    if (mr.group(moy) != null) {
+                        return moy;
+                    }
+                }
+            }
+            throw new IllegalArgumentException("Unknown month: " + str);
+        }
+
+        private int parseDayOfWeek(TzdbTokenizer s, int field, int from, int to) {
+            if (compact) {
+                int dow = abbreviation(s, field, from, to, COMPACT_DAYS);
+                if (dow > 0) {
+                    return dow;
+                }
+                throw new IllegalArgumentException("Unknown day-of-week: " + s.get(field).substring(from, to));
+            }
+            if (regexFields) {
+                return parseDayOfWeek(s.get(field).substring(from, to));
+            }
+            if (to - from == 3) {
+                switch (lowerKey(s, field, from)) {
+                    case ('m' << 16) | ('o' << 8) | 'n': return 1;
+                    case ('t' << 16) | ('u' << 8) | 'e': return 2;
+                    case ('w' << 16) | ('e' << 8) | 'd': return 3;
+                    case ('t' << 16) | ('h' << 8) | 'u': return 4;
+                    case ('f' << 16) | ('r' << 8) | 'i': return 5;
+                    case ('s' << 16) | ('a' << 8) | 't': return 6;
+                    case ('s' << 16) | ('u' << 8) | 'n': return 7;
+                }
+            }
+            throw new IllegalArgumentException("Unknown day-of-week: " + s.get(field).substring(from, to));
+        }
+
+        private int parseDayOfWeek(String str) {
+            if (dowMatcher.reset(str).matches()) {
+                for (int dow = 1; dow < 8; dow++) {
+                    if (dowMatcher.group(dow) != null) {
+                        return dow;
+                    }
+                }
+            }
+            throw new IllegalArgumentException("Unknown day-of-week: " + str);
+        }
+
+        private String parseOptional(TzdbTokenizer s, int field) {
+            return s.equals(field, "-") ? null : s.get(field);
+        }
+
+        /** Marker returned by {@link #decodeSecs} for a field that is not a time. */
+        private static final int NO_TIME = Integer.MIN_VALUE;
+
+        private int parseSecs(TzdbTokenizer s, int field) {
+            int secs = decodeSecs(s, field);
+            if (secs == NO_TIME) {
+                throw new IllegalArgumentException(s.get(field));
+            }
+            return secs;
+        }
+
+        /**
+         * Decodes a time of the form {@code [-]h[:mm[:ss]]} found anywhere in the field,
+         * in the same way as a {@code find()} using the TIME pattern, so any suffix such
+         * as the time definition letter is ignored.
+         *
+         * @return the number of seconds, {@link #NO_TIME} if the field has no time
+         */
+        private int decodeSecs(TzdbTokenizer s, int field) {
+            if (regexFields) {
+                try {
+                    return parseSecs(s.get(field));
+                } catch (IllegalArgumentException ex) {
+                    return NO_TIME;
+                }
+            }
+            if (s.equals(field, "-")) {
+                return 0;
+            }
+            int len = s.length(field);
+            for (int pos = 0; pos < len; pos++) {
+                int i = pos;
+                boolean neg = s.charAt(field, i) == '-';
+                if (neg) {
+                    i++;
+                }
+                if (i == len || !isDigit(s.charAt(field, i))) {
+                    continue;
+                }
+                int hour = s.charAt(field, i++) - '0';
+                if (i < len && isDigit(s.charAt(field, i))) {
+                    hour = hour * 10 + (s.charAt(field, i++) - '0');
+                }
+                int secs = hour * 60 * 60;
+                if (isSexagesimal(s, field, i)) {
+                    secs += sexagesimal(s, field, i) * 60;
+                    i += 3;
+                    if (isSexagesimal(s, field, i)) {
+                        secs += sexagesimal(s, field, i);
+                    }
+                }
+                return neg ? -secs : secs;
+            }
+            return NO_TIME;
+        }
+
+        private int parseSecs(String str) {
+            if (str.equals("-")) {
+                return 0;
+            }
+            try {
+                if (timeMatcher.reset(str).find()) {
+                    int secs = Integer.parseInt(timeMatcher.group("hour")) * 60 * 60;
+                    if (timeMatcher.group("minute") != null) {
+                        secs += Integer.parseInt(timeMatcher.group("minute")) * 60;
+                    }
+                    if (timeMatcher.group("second") != null) {
+                        secs += Integer.parseInt(timeMatcher.group("second"));
+                    }
+                    if (timeMatcher.group("neg") != null) {
+                        secs = -secs;
+                    }
+                    return secs;
+                }
+            } catch (NumberFormatException x) {}
+            throw new IllegalArgumentException(str);
+        }
+
+        private ZoneOffset parseOffset(TzdbTokenizer s, int field) {
+            int secs = parseSecs(s, field);
+            return ZoneOffset.ofTotalSeconds(secs);
+        }
+
+        private int parsePeriod(TzdbTokenizer s, int field) {
+            return parseSecs(s, field);
+        }
+
+        private TimeDefinition parseTimeDefinition(char c) {
+            switch (c) {
+                case 's':
+                case 'S':
+                    // standard time
+                    return TimeDefinition.STANDARD;
+                case 'u':
+                case 'U':
+                case 'g':
+                case 'G':
+                case 'z':
+                case 'Z':
+                    // UTC
+                    return TimeDefinition.UTC;
+                case 'w':
+                case 'W':
+                default:
+                    // wall time
+                    return TimeDefinition.WALL;
+            }
+        }
+    }
 }
@@ -155,6 +155,71 @@ class Utils {
         return adjust(date, dayOfWeek, 0);
     }
 
+    // Calendar tables
+
+    // The first and last year of the precomputed calendar tables.
+    static final int CALENDAR_MIN_YEAR = 1800;
+    static final int CALENDAR_MAX_YEAR = 2100;
+
+    // The epoch day of the first day of each month,
+    // indexed by (year - CALENDAR_MIN_YEAR) * 12 + month - 1.
+    private static final int[] MONTH_START_EPOCH_DAY;
+
+    // The day-of-week of the first day of each month, from 1 to 7, indexed as above.
+    private static final byte[] MONTH_START_DAY_OF_WEEK;
+
+    // Whether each year is a leap year, indexed by year - CALENDAR_MIN_YEAR.
+    private static final boolean[] LEAP_YEAR;
+
+    static {
+        int years = CALENDAR_MAX_YEAR - CALENDAR_MIN_YEAR + 1;
+        MONTH_START_EPOCH_DAY = new int[years * 12];
+        MONTH_START_DAY_OF_WEEK = new byte[years * 12];
+        LEAP_YEAR = new boolean[years];
+        // count back from 1970-01-01, a Thursday
+        int epochDay = 0;
+        for (int year = CALENDAR_MIN_YEAR; year < 1970; year++) {
+            epochDay -= (isLeapYear(year) ? 366 : 365);
+        }
+        for (int i = 0; i < years; i++) {
+            boolean leap = isLeapYear(CALENDAR_MIN_YEAR + i);
+            LEAP_YEAR[i] = leap;
+            for (int month = 1; month <= 12; month++) {
+                MONTH_START_EPOCH_DAY[i * 12 + month - 1] = epochDay;
+                MONTH_START_DAY_OF_WEEK[i * 12 + month - 1] = (byte) (floorMod(epochDay + 3, 7) + 1);
+                epochDay += lengthOfMonth(month, leap);
+            }
+        }
+    }
+
+    // Returns the epoch day of the date, adjusted to the first occurrence of
+    // the specified day-of-week on or after it, or on or before it if previous
+    // is true, in the same way as nextOrSame and previousOrSame.
+    // Dates within the calendar tables are resolved without creating a LocalDate.
+    // @param dayOfWeek  the day-of-week from 1 to 7, -1 if the date is not adjusted
+    // @throws DateTimeException if the date is invalid
+    public static long adjustedEpochDay(int year, int month, int dayOfMonth, int dayOfWeek, boolean previous) {
+        if (year >= CALENDAR_MIN_YEAR && year <= CALENDAR_MAX_YEAR && month >= 1 && month <= 12 &&
+                dayOfMonth >= 1 && dayOfMonth <= lengthOfMonth(month, LEAP_YEAR[year - CALENDAR_MIN_YEAR])) {
+            int index = (year - CALENDAR_MIN_YEAR) * 12 + month - 1;
+            long epochDay = MONTH_START_EPOCH_DAY[index] + dayOfMonth - 1;
+            if (dayOfWeek != -1) {
+                int calDow = (MONTH_START_DAY_OF_WEEK[index] - 1 + dayOfMonth - 1) % 7 + 1;
+                if (previous) {
+                    epochDay -= (calDow - dayOfWeek + 7) % 7;
+                } else {
+                    epochDay += (dayOfWeek - calDow + 7) % 7;
+                }
+            }
+            return epochDay;
+        }
+        LocalDate date = LocalDate.of(year, month, dayOfMonth);
+        if (dayOfWeek != -1) {
+            date = (previous ? previousOrSame(date, dayOfWeek) : nextOrSame(date, dayOfWeek));
+        }
+        return date.toEpochDay();
+    }
+
     // Implementation of next, previous or current day-of-week.
     // @param relative  whether the current date is a valid answer
     private static final LocalDate adjust(LocalDate date, int dow, int relative) {
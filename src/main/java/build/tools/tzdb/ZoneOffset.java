@@ -64,6 +64,7 @@ package build.tools.tzdb;
 import build.tools.tzdb.support.com.redhat.openjdk.support7.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * A time-zone offset from Greenwich/UTC, such as {@code +02:00}.
@@ -75,10 +76,29 @@ import java.util.concurrent.ConcurrentMap;
  */
 final class ZoneOffset implements Comparable<ZoneOffset> {
 
-    /** Cache of time-zone offset by offset in seconds. */
-    private static final ConcurrentMap<Integer, ZoneOffset> SECONDS_CACHE = new ConcurrentHashMap<Integer, ZoneOffset>(16, 0.75f, 4);
     /** Cache of time-zone offset by ID. */
     private static final ConcurrentMap<String, ZoneOffset> ID_CACHE = new ConcurrentHashMap<String, ZoneOffset>(16, 0.75f, 4);
+    /** The number of seconds per quarter hour, the unit of the quarter cache. */
+    private static final int SECONDS_PER_QUARTER = 15 * 60;
+    /** The number of quarter hours of the maximum offset. */
+    private static final int MAX_QUARTERS = 18 * 4;
+    /** The quarter hour offsets, from -18:00 to +18:00, indexed by quarters from -18:00. */
+    private static final ZoneOffset[] QUARTER_CACHE = new ZoneOffset[2 * MAX_QUARTERS + 1];
+    /** The number of bits of the slot index of the seconds cache. */
+    private static final int SECONDS_CACHE_BITS = 11;
+    /**
+     * Cache of the other offsets, such as the local mean time of a city.
+     * Each offset has a single slot, by a hash of its seconds, replacing any
+     * other offset found there, so the cache is bounded and needs no locking.
+     */
+    private static final AtomicReferenceArray<ZoneOffset> SECONDS_CACHE = new AtomicReferenceArray<ZoneOffset>(1 << SECONDS_CACHE_BITS);
+    static {
+        for (int i = 0; i < QUARTER_CACHE.length; i++) {
+            ZoneOffset offset = new ZoneOffset((i - MAX_QUARTERS) * SECONDS_PER_QUARTER);
+            QUARTER_CACHE[i] = offset;
+            ID_CACHE.put(offset.getId(), offset);
+        }
+    }
 
     /**
      * The number of seconds per hour.
@@ -338,19 +358,16 @@ final class ZoneOffset implements Comparable<ZoneOffset> {
         if (Math.abs(totalSeconds) > MAX_SECONDS) {
             throw new DateTimeException("Zone offset not in valid range: -18:00 to +18:00");
         }
-        if (totalSeconds % (15 * SECONDS_PER_MINUTE) == 0) {
-            Integer totalSecs = totalSeconds;
-            ZoneOffset result = SECONDS_CACHE.get(totalSecs);
-            if (result == null) {
-                result = new ZoneOffset(totalSeconds);
-                SECONDS_CACHE.putIfAbsent(totalSecs, result);
-                result = SECONDS_CACHE.get(totalSecs);
-                ID_CACHE.putIfAbsent(result.getId(), result);
-            }
-            return result;
-        } else {
-            return new ZoneOffset(totalSeconds);
+        if (totalSeconds % SECONDS_PER_QUARTER == 0) {
+            return QUARTER_CACHE[totalSeconds / SECONDS_PER_QUARTER + MAX_QUARTERS];
+        }
+        int slot = (totalSeconds * 0x9E3779B9) >>> (32 - SECONDS_CACHE_BITS);  // Fibonacci hashing
+        ZoneOffset result = SECONDS_CACHE.get(slot);
+        if (result == null || result.totalSeconds != totalSeconds) {
+            result = new ZoneOffset(totalSeconds);
+            SECONDS_CACHE.set(slot, result);
         }
+        return result;
     }
 
     /**
@@ -61,6 +61,8 @@
  */
 package build.tools.tzdb;
 
+import static build.tools.tzdb.Utils.*;
+
 import build.tools.tzdb.support.com.redhat.openjdk.support7.Objects;
 
 /**
@@ -178,6 +180,32 @@ final class ZoneOffsetTransitionRule {
         this.offsetAfter = offsetAfter;
     }
 
+    //-----------------------------------------------------------------------
+    /**
+     * Creates the transition instant for the specified year.
+     * <p>
+     * This is the instant of the transition the JDK creates from this rule
+     * for the year, as epoch seconds.
+     *
+     * @param year  the year to create a transition for
+     * @return the transition epoch-second
+     */
+    long createTransitionEpochSecond(int year) {
+        long epochDay;
+        if (dom < 0) {
+            int dayOfMonth = lengthOfMonth(month, isLeapYear(year)) + 1 + dom;
+            epochDay = adjustedEpochDay(year, month, dayOfMonth, dow, true);
+        } else {
+            epochDay = adjustedEpochDay(year, month, dom, dow, false);
+        }
+        if (timeEndOfDay) {
+            epochDay++;
+        }
+        long localEpochSecond = epochDay * LocalTime.SECONDS_PER_DAY + time.toSecondOfDay();
+        return timeDefinition.toEpochSecond(localEpochSecond,
+                standardOffset.getTotalSeconds(), offsetBefore.getTotalSeconds());
+    }
+
     //-----------------------------------------------------------------------
     /**
      * Checks if this object equals another.
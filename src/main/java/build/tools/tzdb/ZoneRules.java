@@ -61,11 +61,12 @@
  */
 package build.tools.tzdb;
 
+import static build.tools.tzdb.Utils.*;
+
 import java.io.DataOutput;
 import java.io.IOException;
 import java.io.ObjectOutput;
 import java.util.Arrays;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -103,51 +104,227 @@ final class ZoneRules {
      * The last rule.
      */
     private final ZoneOffsetTransitionRule[] lastRules;
+    /**
+     * The hash code, computed once as the rules are used as hash keys.
+     */
+    private final int hashCode;
 
     /**
      * Creates an instance.
      *
      * @param baseStandardOffset  the standard offset to use before legal rules were set, not null
      * @param baseWallOffset  the wall offset to use before legal rules were set, not null
-     * @param standardOffsetTransitionList  the list of changes to the standard offset, not null
-     * @param transitionList  the list of transitions, not null
+     * @param standardOffsetTransitions  the changes to the standard offset, not null
+     * @param transitions  the transitions, not null
      * @param lastRules  the recurring last rules, size 16 or less, not null
      */
     ZoneRules(ZoneOffset baseStandardOffset,
               ZoneOffset baseWallOffset,
-              List<ZoneOffsetTransition> standardOffsetTransitionList,
-              List<ZoneOffsetTransition> transitionList,
+              TzdbTransitionBuffer standardOffsetTransitions,
+              TzdbTransitionBuffer transitions,
               List<ZoneOffsetTransitionRule> lastRules) {
+        this(standardOffsetTransitions.toEpochSecondArray(),
+             offsetsAfter(baseStandardOffset, standardOffsetTransitions),
+             transitions.toEpochSecondArray(),
+             offsetsAfter(baseWallOffset, transitions),
+             lastRules.toArray(new ZoneOffsetTransitionRule[lastRules.size()]));
+    }
 
-        this.standardTransitions = new long[standardOffsetTransitionList.size()];
+    /**
+     * Creates an instance from its arrays.
+     *
+     * @param standardTransitions  the transitions between standard offsets, not null
+     * @param standardOffsets  the standard offsets, one more than the transitions, not null
+     * @param savingsInstantTransitions  the transitions between wall offsets, not null
+     * @param wallOffsets  the wall offsets, one more than the transitions, not null
+     * @param lastRules  the recurring last rules, size 16 or less, not null
+     */
+    private ZoneRules(long[] standardTransitions,
+                      ZoneOffset[] standardOffsets,
+                      long[] savingsInstantTransitions,
+                      ZoneOffset[] wallOffsets,
+                      ZoneOffsetTransitionRule[] lastRules) {
+        this.standardTransitions = standardTransitions;
+        this.standardOffsets = standardOffsets;
+        this.savingsInstantTransitions = savingsInstantTransitions;
+        this.wallOffsets = wallOffsets;
+
+        // last rules
+        if (lastRules.length > 16) {
+            throw new IllegalArgumentException("Too many transition rules");
+        }
+        this.lastRules = lastRules;
+        this.hashCode = Arrays.hashCode(standardTransitions) ^
+                Arrays.hashCode(standardOffsets) ^
+                Arrays.hashCode(savingsInstantTransitions) ^
+                Arrays.hashCode(wallOffsets) ^
+                Arrays.hashCode(this.lastRules);
+    }
 
-        this.standardOffsets = new ZoneOffset[standardOffsetTransitionList.size() + 1];
-        this.standardOffsets[0] = baseStandardOffset;
-        for (int i = 0; i < standardOffsetTransitionList.size(); i++) {
-            this.standardTransitions[i] = standardOffsetTransitionList.get(i).toEpochSecond();
-            this.standardOffsets[i + 1] = standardOffsetTransitionList.get(i).getOffsetAfter();
+    /**
+     * Lists the offsets in effect after each transition.
+     *
+     * @param baseOffset  the offset before the first transition, not null
+     * @param transitions  the transitions, not null
+     * @return the base offset followed by the offset after each transition, not null
+     */
+    private static ZoneOffset[] offsetsAfter(ZoneOffset baseOffset, TzdbTransitionBuffer transitions) {
+        ZoneOffset[] offsets = new ZoneOffset[transitions.size() + 1];
+        offsets[0] = baseOffset;
+        for (int i = 0; i < transitions.size(); i++) {
+            offsets[i + 1] = ZoneOffset.ofTotalSeconds(transitions.offsetAfter(i));
         }
+        return offsets;
+    }
 
-        // convert savings transitions to locals
-        List<ZoneOffset> localTransitionOffsetList = new ArrayList<ZoneOffset>();
-        localTransitionOffsetList.add(baseWallOffset);
-        for (ZoneOffsetTransition trans : transitionList) {
-            localTransitionOffsetList.add(trans.getOffsetAfter());
+    /**
+     * Returns a copy of these rules without the history before an instant.
+     * <p>
+     * The last savings transition before the instant is kept as an anchor, with
+     * the last standard transition up to it, and the earlier transitions are
+     * collapsed into the offsets before them. The JDK's {@code ZoneInfo} derives
+     * the savings of each period from the standard offset at its start, and
+     * never uses the first standard transition, taken to be the end of local
+     * mean time, so the standard offset at the cutoff must be set by a
+     * transition up to the anchor. Keeping a transition also stops the JDK
+     * treating rules with last rules as a fixed offset.
+     *
+     * @param epochSecond  the instant from which the history is kept
+     * @return the rules, this if there is nothing to remove, not null
+     */
+    ZoneRules withHistoryFrom(long epochSecond) {
+        int savingsCount = countBefore(savingsInstantTransitions, epochSecond) - 1;
+        if (savingsCount < 0) {
+            return this;
+        }
+        long anchor = savingsInstantTransitions[savingsCount];
+        int standardCount = Math.max(countUntil(standardTransitions, anchor) - 1, 0);
+        if (standardCount == 0 && savingsCount == 0) {
+            return this;
         }
+        return new ZoneRules(
+                Arrays.copyOfRange(standardTransitions, standardCount, standardTransitions.length),
+                Arrays.copyOfRange(standardOffsets, standardCount, standardOffsets.length),
+                Arrays.copyOfRange(savingsInstantTransitions, savingsCount, savingsInstantTransitions.length),
+                Arrays.copyOfRange(wallOffsets, savingsCount, wallOffsets.length),
+                lastRules);
+    }
 
-        this.wallOffsets = localTransitionOffsetList.toArray(new ZoneOffset[localTransitionOffsetList.size()]);
+    /**
+     * Returns a copy of these rules with the transitions of the last rules
+     * added until the end of a year.
+     * <p>
+     * The JDK finds the offset after the last transition by creating the
+     * transitions of the year from the last rules. The transitions added are
+     * those of the last rules after the last transition, for all the years
+     * up to the specified year, so the JDK finds the offset of an instant
+     * until then in the transitions instead. The last rules are kept for the
+     * later instants.
+     *
+     * @param year  the last year to add the transitions of
+     * @return the rules, this if there is nothing to add, not null
+     * @throws IllegalArgumentException if there are too many transitions to add
+     */
+    ZoneRules withTransitionsUntil(int year) {
+        int size = savingsInstantTransitions.length;
+        if (lastRules.length == 0 || size == 0) {
+            return this;
+        }
+        long lastTransition = savingsInstantTransitions[size - 1];
+        int lastOffsetSecs = wallOffsets[size].getTotalSeconds();
+        // the year of the transitions the JDK creates for the instants after the last transition
+        int firstYear = LocalDate.ofEpochDay(floorDiv(lastTransition + lastOffsetSecs, LocalTime.SECONDS_PER_DAY)).getYear();
+        if (year < firstYear) {
+            return this;
+        }
+        // the serialized rules are limited to Short.MAX_VALUE bytes, far fewer transitions
+        long capacity = size + ((long) year - firstYear + 1) * lastRules.length;
+        if (capacity > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many transitions until " + year + ": " + capacity);
+        }
+        long[] transitions = Arrays.copyOf(savingsInstantTransitions, (int) capacity);
+        ZoneOffset[] offsets = Arrays.copyOf(wallOffsets, (int) capacity + 1);
+        for (int y = firstYear; y <= year; y++) {
+            for (ZoneOffsetTransitionRule rule : lastRules) {
+                long epochSecond = rule.createTransitionEpochSecond(y);
+                if (epochSecond > transitions[size - 1]) {
+                    transitions[size] = epochSecond;
+                    offsets[++size] = rule.offsetAfter;
+                }
+            }
+        }
+        if (size == savingsInstantTransitions.length) {
+            return this;
+        }
+        return new ZoneRules(
+                standardTransitions, standardOffsets,
+                Arrays.copyOf(transitions, size), Arrays.copyOf(offsets, size + 1),
+                lastRules);
+    }
 
-        // convert savings transitions to instants
-        this.savingsInstantTransitions = new long[transitionList.size()];
-        for (int i = 0; i < transitionList.size(); i++) {
-            this.savingsInstantTransitions[i] = transitionList.get(i).toEpochSecond();
+    /**
+     * Lists the changes of offsets between two instants.
+     * <p>
+     * The standard and wall transitions are merged, keeping those changing
+     * either offset, so two rules with the same list agree at every instant
+     * between the two. The transitions of the last rules are not included,
+     * see {@link #withTransitionsUntil(int)}.
+     *
+     * @param fromEpochSecond  the first instant, inclusive
+     * @param toEpochSecond  the last instant, exclusive
+     * @return the wall and standard offset seconds at the first instant, followed by
+     *  the epoch second and the wall and standard offset seconds after each change, not null
+     */
+    long[] offsetsBetween(long fromEpochSecond, long toEpochSecond) {
+        int s = countUntil(standardTransitions, fromEpochSecond);
+        int w = countUntil(savingsInstantTransitions, fromEpochSecond);
+        long[] offsets = new long[2 + 3 * (standardTransitions.length - s + savingsInstantTransitions.length - w)];
+        int wallSecs = wallOffsets[w].getTotalSeconds();
+        int standardSecs = standardOffsets[s].getTotalSeconds();
+        offsets[0] = wallSecs;
+        offsets[1] = standardSecs;
+        int size = 2;
+        while (true) {
+            long next = Math.min(
+                    s < standardTransitions.length ? standardTransitions[s] : Long.MAX_VALUE,
+                    w < savingsInstantTransitions.length ? savingsInstantTransitions[w] : Long.MAX_VALUE);
+            if (next >= toEpochSecond) {
+                break;
+            }
+            if (s < standardTransitions.length && standardTransitions[s] == next) {
+                s++;
+            }
+            if (w < savingsInstantTransitions.length && savingsInstantTransitions[w] == next) {
+                w++;
+            }
+            if (wallOffsets[w].getTotalSeconds() != wallSecs || standardOffsets[s].getTotalSeconds() != standardSecs) {
+                wallSecs = wallOffsets[w].getTotalSeconds();
+                standardSecs = standardOffsets[s].getTotalSeconds();
+                offsets[size++] = next;
+                offsets[size++] = wallSecs;
+                offsets[size++] = standardSecs;
+            }
         }
+        return Arrays.copyOf(offsets, size);
+    }
 
-        // last rules
-        if (lastRules.size() > 16) {
-            throw new IllegalArgumentException("Too many transition rules");
+    /**
+     * Counts the transitions at or before an instant.
+     */
+    private static int countUntil(long[] transitions, long epochSecond) {
+        int index = Arrays.binarySearch(transitions, epochSecond);
+        return (index >= 0 ? index + 1 : -index - 1);
+    }
+
+    /**
+     * Counts the transitions before an instant.
+     */
+    private static int countBefore(long[] transitions, long epochSecond) {
+        int count = 0;
+        while (count < transitions.length && transitions[count] < epochSecond) {
+            count++;
         }
-        this.lastRules = lastRules.toArray(new ZoneOffsetTransitionRule[lastRules.size()]);
+        return count;
     }
 
     /** Type for ZoneRules. */
@@ -285,7 +462,8 @@ final class ZoneRules {
         }
         if (otherRules instanceof ZoneRules) {
             ZoneRules other = (ZoneRules) otherRules;
-            return Arrays.equals(standardTransitions, other.standardTransitions) &&
+            return hashCode == other.hashCode &&
+                    Arrays.equals(standardTransitions, other.standardTransitions) &&
                     Arrays.equals(standardOffsets, other.standardOffsets) &&
                     Arrays.equals(savingsInstantTransitions, other.savingsInstantTransitions) &&
                     Arrays.equals(wallOffsets, other.wallOffsets) &&
@@ -301,11 +479,7 @@ final class ZoneRules {
      */
     @Override
     public int hashCode() {
-        return Arrays.hashCode(standardTransitions) ^
-                Arrays.hashCode(standardOffsets) ^
-                Arrays.hashCode(savingsInstantTransitions) ^
-                Arrays.hashCode(wallOffsets) ^
-                Arrays.hashCode(lastRules);
+        return hashCode;
     }
 
 }
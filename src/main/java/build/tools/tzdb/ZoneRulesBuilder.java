@@ -64,8 +64,13 @@ package build.tools.tzdb;
 import static build.tools.tzdb.Utils.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import build.tools.tzdb.support.com.redhat.openjdk.support7.Objects;
 
@@ -84,6 +89,7 @@ import build.tools.tzdb.support.com.redhat.openjdk.support7.Objects;
  * This class is a mutable builder used to create zone instances.
  * It must only be used from a single thread.
  * The created instances are immutable and thread-safe.
+ * Builders may share a {@link RuleCache}, which is thread-safe.
  *
  * @since 1.8
  */
@@ -93,6 +99,10 @@ public class ZoneRulesBuilder {
      * The list of windows.
      */
     private List<TZWindow> windowList = new ArrayList<TZWindow>();
+    /**
+     * The cache of expanded rules, not null.
+     */
+    private final RuleCache ruleCache;
 
     //-----------------------------------------------------------------------
     /**
@@ -107,6 +117,20 @@ public class ZoneRulesBuilder {
      * {@link #addRuleToWindow list of rules}.
      */
     public ZoneRulesBuilder() {
+        this(new RuleCache());
+    }
+
+    /**
+     * Constructs an instance of the builder sharing expanded rules with other builders.
+     * <p>
+     * Many zones use the same rules for some of their windows, such as the
+     * {@code US} or {@code EU} rules. The rules of such windows are only
+     * expanded and sorted once for all the builders using the cache.
+     *
+     * @param ruleCache  the cache of expanded rules, not null
+     */
+    public ZoneRulesBuilder(RuleCache ruleCache) {
+        this.ruleCache = Objects.requireNonNull(ruleCache, "ruleCache");
     }
 
     //-----------------------------------------------------------------------
@@ -312,25 +336,26 @@ public class ZoneRulesBuilder {
             throw new IllegalStateException("No windows have been added to the builder");
         }
 
-        final List<ZoneOffsetTransition> standardTransitionList = new ArrayList<ZoneOffsetTransition>(4);
-        final List<ZoneOffsetTransition> transitionList = new ArrayList<ZoneOffsetTransition>(256);
+        final TzdbTransitionBuffer standardTransitions = new TzdbTransitionBuffer(4);
+        final TzdbTransitionBuffer transitions = new TzdbTransitionBuffer(256);
         final List<ZoneOffsetTransitionRule> lastTransitionRuleList = new ArrayList<ZoneOffsetTransitionRule>(2);
 
-        // initialize the standard offset calculation
+        // initialize the standard offset calculation, all as epoch seconds and offset seconds
         final TZWindow firstWindow = windowList.get(0);
         ZoneOffset loopStandardOffset = firstWindow.standardOffset;
+        int loopStandardSecs = loopStandardOffset.getTotalSeconds();
         int loopSavings = 0;
         if (firstWindow.fixedSavingAmountSecs != null) {
             loopSavings = firstWindow.fixedSavingAmountSecs;
         }
-        final ZoneOffset firstWallOffset = ZoneOffset.ofTotalSeconds(loopStandardOffset.getTotalSeconds() + loopSavings);
-        LocalDateTime loopWindowStart = LocalDateTime.of(YEAR_MIN_VALUE, 1, 1, 0, 0);
-        ZoneOffset loopWindowOffset = firstWallOffset;
+        final ZoneOffset firstWallOffset = ZoneOffset.ofTotalSeconds(loopStandardSecs + loopSavings);
+        int loopWindowOffsetSecs = firstWallOffset.getTotalSeconds();
+        long loopWindowStart = LocalDateTime.of(YEAR_MIN_VALUE, 1, 1, 0, 0).toEpochSecond(firstWallOffset);
 
         // build the windows and rules to interesting data
         for (TZWindow window : windowList) {
             // tidy the state
-            window.tidy(loopWindowStart.getYear());
+            window.tidy(LocalDate.ofEpochDay(floorDiv(loopWindowStart + loopWindowOffsetSecs, SECONDS_PER_DAY)).getYear());
 
             // calculate effective savings at the start of the window
             Integer effectiveSavings = window.fixedSavingAmountSecs;
@@ -339,8 +364,8 @@ public class ZoneRulesBuilder {
                 // savings from the last window to find the savings amount applicable
                 // at start of this window
                 effectiveSavings = 0;
-                for (TZRule rule : window.ruleList) {
-                    if (rule.toEpochSecond(loopStandardOffset, loopSavings) > loopWindowStart.toEpochSecond(loopWindowOffset)) {
+                for (TZRule rule : window.rules()) {
+                    if (rule.toEpochSecond(loopStandardSecs, loopSavings) > loopWindowStart) {
                         // previous savings amount found, which could be the savings amount at
                         // the instant that the window starts (hence isAfter)
                         break;
@@ -350,28 +375,28 @@ public class ZoneRulesBuilder {
             }
 
             // check if standard offset changed, and update it
-            if (loopStandardOffset.equals(window.standardOffset) == false) {
-                standardTransitionList.add(
-                    new ZoneOffsetTransition(
-                        LocalDateTime.ofEpochSecond(loopWindowStart.toEpochSecond(loopWindowOffset), 0, loopStandardOffset),
-                        loopStandardOffset, window.standardOffset));
+            int windowStandardSecs = window.standardOffset.getTotalSeconds();
+            if (loopStandardSecs != windowStandardSecs) {
+                standardTransitions.add(loopWindowStart, loopStandardSecs, windowStandardSecs);
                 loopStandardOffset = window.standardOffset;
+                loopStandardSecs = windowStandardSecs;
             }
 
             // check if the start of the window represents a transition
-            ZoneOffset effectiveWallOffset = ZoneOffset.ofTotalSeconds(loopStandardOffset.getTotalSeconds() + effectiveSavings);
-            if (loopWindowOffset.equals(effectiveWallOffset) == false) {
-                transitionList.add(new ZoneOffsetTransition(loopWindowStart, loopWindowOffset, effectiveWallOffset));
+            int effectiveWallOffsetSecs = loopStandardSecs + effectiveSavings;
+            if (loopWindowOffsetSecs != effectiveWallOffsetSecs) {
+                transitions.add(loopWindowStart, loopWindowOffsetSecs, effectiveWallOffsetSecs);
             }
             loopSavings = effectiveSavings;
 
             // apply rules within the window
-            for (TZRule rule : window.ruleList) {
+            for (TZRule rule : window.rules()) {
                 if (rule.isTransition(loopSavings)) {
-                    ZoneOffsetTransition trans = rule.toTransition(loopStandardOffset, loopSavings);
-                    if (trans.toEpochSecond() < loopWindowStart.toEpochSecond(loopWindowOffset) == false &&
-                        trans.toEpochSecond() < window.createDateTimeEpochSecond(loopSavings)) {
-                        transitionList.add(trans);
+                    long transEpochSecond = rule.toEpochSecond(loopStandardSecs, loopSavings);
+                    if (transEpochSecond < loopWindowStart == false &&
+                        transEpochSecond < window.createDateTimeEpochSecond(loopSavings)) {
+                        transitions.add(transEpochSecond,
+                                loopStandardSecs + loopSavings, loopStandardSecs + rule.savingAmountSecs);
                         loopSavings = rule.savingAmountSecs;
                     }
                 }
@@ -384,14 +409,13 @@ public class ZoneRulesBuilder {
             }
 
             // finally we can calculate the true end of the window, passing it to the next window
-            loopWindowOffset = window.createWallOffset(loopSavings);
-            loopWindowStart = LocalDateTime.ofEpochSecond(
-                    window.createDateTimeEpochSecond(loopSavings), 0, loopWindowOffset);
+            loopWindowOffsetSecs = loopStandardSecs + loopSavings;
+            loopWindowStart = window.createDateTimeEpochSecond(loopSavings);
         }
 
         return new ZoneRules(
-                firstWindow.standardOffset, firstWallOffset, standardTransitionList,
-                transitionList, lastTransitionRuleList);
+                firstWindow.standardOffset, firstWallOffset, standardTransitions,
+                transitions, lastTransitionRuleList);
     }
 
     //-----------------------------------------------------------------------
@@ -405,17 +429,23 @@ public class ZoneRulesBuilder {
         private final ZoneOffset standardOffset;
         /** The end local time, not null. */
         private final LocalDateTime windowEnd;
+        /** The end local time, as seconds from 1970-01-01T00:00. */
+        private final long windowEndLocalEpochSecond;
         /** The type of the end time, not null. */
         private final TimeDefinition timeDefinition;
 
         /** The fixed amount of the saving to be applied during this window. */
         private Integer fixedSavingAmountSecs;
-        /** The rules for the current window. */
-        private List<TZRule> ruleList = new ArrayList<TZRule>();
+        /** The rule ranges for the current window, in the order added. */
+        private List<TZRuleRange> ruleRangeList = new ArrayList<TZRuleRange>();
+        /** The number of rules in the ranges, one per year. */
+        private long ruleCount;
         /** The latest year that the last year starts at. */
         private int maxLastRuleStartYear = YEAR_MIN_VALUE;
         /** The last rules. */
         private List<TZRule> lastRuleList = new ArrayList<TZRule>();
+        /** The rules of the ranges, sorted, null until the window is tidied and its rules used. */
+        private List<TZRule> expandedRules;
 
         /**
          * Constructor.
@@ -430,6 +460,7 @@ public class ZoneRulesBuilder {
                 TimeDefinition timeDefinition) {
             super();
             this.windowEnd = windowEnd;
+            this.windowEndLocalEpochSecond = windowEnd.toEpochSecond(ZoneOffset.UTC);
             this.timeDefinition = timeDefinition;
             this.standardOffset = standardOffset;
         }
@@ -441,7 +472,7 @@ public class ZoneRulesBuilder {
          * @throws IllegalStateException if the window already has rules
          */
         void setFixedSavings(int fixedSavingAmount) {
-            if (ruleList.size() > 0 || lastRuleList.size() > 0) {
+            if (ruleCount > 0 || lastRuleList.size() > 0) {
                 throw new IllegalStateException("Window has DST rules, so cannot have fixed savings");
             }
             this.fixedSavingAmountSecs = fixedSavingAmount;
@@ -449,6 +480,9 @@ public class ZoneRulesBuilder {
 
         /**
          * Adds a rule to the current window.
+         * <p>
+         * Rules that are not last rules are kept as a range of years,
+         * see {@link #rules()}.
          *
          * @param startYear  the start year of the rule, from MIN_YEAR to MAX_YEAR
          * @param endYear  the end year of the rule, from MIN_YEAR to MAX_YEAR
@@ -477,25 +511,20 @@ public class ZoneRulesBuilder {
             if (fixedSavingAmountSecs != null) {
                 throw new IllegalStateException("Window has a fixed DST saving, so cannot have DST rules");
             }
-            if (ruleList.size() >= 2000) {
+            if (ruleCount >= 2000) {
                 throw new IllegalStateException("Window has reached the maximum number of allowed rules");
             }
-            boolean lastRule = false;
-            if (endYear == YEAR_MAX_VALUE) {
-                lastRule = true;
-                endYear = startYear;
+            if (startYear > endYear) {
+                return;
             }
-            int year = startYear;
-            while (year <= endYear) {
-                TZRule rule = new TZRule(year, month, dayOfMonthIndicator, dayOfWeek, time, timeEndOfDay, timeDefinition, savingAmountSecs);
-                if (lastRule) {
-                    lastRuleList.add(rule);
-                } else {
-                    ruleList.add(rule);
-                }
-                maxLastRuleStartYear = Math.max(startYear, maxLastRuleStartYear);
-                year++;
+            TZRule rule = new TZRule(startYear, month, dayOfMonthIndicator, dayOfWeek, time, timeEndOfDay, timeDefinition, savingAmountSecs);
+            if (endYear == YEAR_MAX_VALUE) {
+                lastRuleList.add(rule);
+            } else {
+                ruleRangeList.add(new TZRuleRange(rule, endYear));
+                ruleCount += (long) endYear - startYear + 1;
             }
+            maxLastRuleStartYear = Math.max(startYear, maxLastRuleStartYear);
         }
 
         /**
@@ -530,7 +559,7 @@ public class ZoneRulesBuilder {
                 for (TZRule lastRule : lastRuleList) {
                     addRule(lastRule.year, maxLastRuleStartYear, lastRule.month, lastRule.dayOfMonthIndicator,
                         lastRule.dayOfWeek, lastRule.time, lastRule.timeEndOfDay, lastRule.timeDefinition, lastRule.savingAmountSecs);
-                    lastRule.year = maxLastRuleStartYear + 1;
+                    lastRule.setYear(maxLastRuleStartYear + 1);
                 }
                 if (maxLastRuleStartYear == YEAR_MAX_VALUE) {
                     lastRuleList.clear();
@@ -548,12 +577,11 @@ public class ZoneRulesBuilder {
                 maxLastRuleStartYear = YEAR_MAX_VALUE;
             }
 
-            // ensure lists are sorted
-            Collections.sort(ruleList);
+            // ensure last rules are sorted, the rule ranges are merged in order by rules()
             Collections.sort(lastRuleList);
 
             // default fixed savings to zero
-            if (ruleList.size() == 0 && fixedSavingAmountSecs == null) {
+            if (ruleCount == 0 && fixedSavingAmountSecs == null) {
                 fixedSavingAmountSecs = 0;
             }
         }
@@ -565,29 +593,256 @@ public class ZoneRulesBuilder {
          */
         boolean isSingleWindowStandardOffset() {
             return windowEnd.equals(LocalDateTime.MAX) && timeDefinition == TimeDefinition.WALL &&
-                    fixedSavingAmountSecs == null && lastRuleList.isEmpty() && ruleList.isEmpty();
+                    fixedSavingAmountSecs == null && lastRuleList.isEmpty() && ruleCount == 0;
         }
 
         /**
-         * Creates the wall offset for the local date-time at the end of the window.
+         * Gets the rules of the window, one per year of each rule range, in sorted order.
+         * <p>
+         * The rules are taken from the rule cache, so they are shared with the other
+         * windows having the same rule ranges and must not be modified.
+         * The window must have been tidied.
          *
-         * @param savingsSecs  the amount of savings in use in seconds
-         * @return the created date-time epoch second in the wall offset, not null
+         * @return the rules, not null
          */
-        ZoneOffset createWallOffset(int savingsSecs) {
-            return ZoneOffset.ofTotalSeconds(standardOffset.getTotalSeconds() + savingsSecs);
+        Iterable<TZRule> rules() {
+            if (expandedRules == null) {
+                expandedRules = ruleCache.rules(this);
+            }
+            return expandedRules;
         }
 
         /**
-         * Creates the offset date-time for the local date-time at the end of the window.
+         * Gets the key identifying the rule ranges of the window.
+         * <p>
+         * The key holds the years and the fields of each range in the order added,
+         * which is all that the expanded rules depend on.
+         *
+         * @return the key, not null
+         */
+        RuleKey ruleKey() {
+            int[] fields = new int[ruleRangeList.size() * 9];
+            int i = 0;
+            for (TZRuleRange range : ruleRangeList) {
+                TZRule rule = range.rule;
+                fields[i++] = range.startYear;
+                fields[i++] = range.endYear;
+                fields[i++] = rule.month;
+                fields[i++] = rule.dayOfMonthIndicator;
+                fields[i++] = rule.dayOfWeek;
+                fields[i++] = rule.time.toSecondOfDay();
+                fields[i++] = (rule.timeEndOfDay ? 1 : 0);
+                fields[i++] = rule.timeDefinition.ordinal();
+                fields[i++] = rule.savingAmountSecs;
+            }
+            return new RuleKey(fields);
+        }
+
+        /**
+         * Expands the rule ranges into one rule per year, in sorted order.
+         * <p>
+         * The rules are generated by merging the ranges year by year, the result
+         * is the same as sorting all the rules of all the years with a stable sort.
+         *
+         * @return the rules, not null
+         */
+        TZRule[] expandRules() {
+            TZRule[] expanded = new TZRule[(int) ruleCount];
+            int i = 0;
+            RuleIterator it = new RuleIterator();
+            while (it.hasNext()) {
+                TZRule rule = it.next();  // reused by the iterator, so copied
+                TZRule copy = new TZRule(rule.year, rule.month, rule.dayOfMonthIndicator, rule.dayOfWeek,
+                        rule.time, rule.timeEndOfDay, rule.timeDefinition, rule.savingAmountSecs);
+                copy.sortKey = rule.sortKey();  // computed now, the copy is then never modified
+                expanded[i++] = copy;
+            }
+            return expanded;
+        }
+
+        /**
+         * Merges the rule ranges year by year.
+         * <p>
+         * As rules are ordered by year first, each year is sorted separately: the rules
+         * of the ranges covering the year are insertion-sorted in the order the ranges
+         * were added, which keeps equal rules in that order as a stable sort would.
+         * The returned rules are reused by the iteration, so must not be retained.
+         */
+        private final class RuleIterator implements Iterator<TZRule> {
+            /** The rules of the current year, sorted. */
+            private final TZRule[] yearRules = new TZRule[ruleRangeList.size()];
+            /** The number of rules in the current year. */
+            private int count;
+            /** The index of the next rule to return. */
+            private int index;
+            /** The next year with rules, Integer.MAX_VALUE if none. */
+            private int nextYear = Integer.MAX_VALUE;
+
+            RuleIterator() {
+                for (TZRuleRange range : ruleRangeList) {
+                    nextYear = Math.min(nextYear, range.startYear);
+                }
+            }
+
+            /**
+             * Sorts the rules of the next year, only once the rules of the
+             * current year are finished with as the rule instances are shared.
+             */
+            private void advance() {
+                count = 0;
+                index = 0;
+                int year = nextYear;
+                nextYear = Integer.MAX_VALUE;
+                for (TZRuleRange range : ruleRangeList) {
+                    if (range.startYear <= year && year <= range.endYear) {
+                        TZRule rule = range.rule;
+                        rule.setYear(year);
+                        int i = count;
+                        while (i > 0 && yearRules[i - 1].compareTo(rule) > 0) {
+                            yearRules[i] = yearRules[i - 1];
+                            i--;
+                        }
+                        yearRules[i] = rule;
+                        count++;
+                    }
+                    int rangeNextYear = Math.max(range.startYear, year + 1);
+                    if (rangeNextYear <= range.endYear && rangeNextYear < nextYear) {
+                        nextYear = rangeNextYear;
+                    }
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                if (index == count && nextYear != Integer.MAX_VALUE) {
+                    advance();
+                }
+                return index < count;
+            }
+
+            @Override
+            public TZRule next() {
+                if (hasNext() == false) {
+                    throw new NoSuchElementException();
+                }
+                return yearRules[index++];
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        }
+
+        /**
+         * Creates the epoch second of the local date-time at the end of the window.
          *
          * @param savingsSecs  the amount of savings in use in seconds
-         * @return the created date-time epoch second in the wall offset, not null
+         * @return the created date-time epoch second
          */
         long createDateTimeEpochSecond(int savingsSecs) {
-            ZoneOffset wallOffset = createWallOffset(savingsSecs);
-            LocalDateTime ldt = timeDefinition.createDateTime(windowEnd, standardOffset, wallOffset);
-            return ldt.toEpochSecond(wallOffset);
+            int standardSecs = standardOffset.getTotalSeconds();
+            return timeDefinition.toEpochSecond(windowEndLocalEpochSecond, standardSecs, standardSecs + savingsSecs);
+        }
+    }
+
+    /** The number of seconds per day. */
+    private static final int SECONDS_PER_DAY = 86400;
+    /** Marker for a sort key that is not yet computed, not a valid key as dates are limited. */
+    private static final long NO_SORT_KEY = Long.MIN_VALUE;
+
+    //-----------------------------------------------------------------------
+    /**
+     * A cache of the expanded rules of windows, shared by builders.
+     * <p>
+     * The rules of a window only depend on its rule ranges, so windows with the
+     * same ranges, typically those using the same named rules over the same years,
+     * share one sorted list of rules rather than each expanding and sorting them.
+     *
+     * <h4>Implementation notes</h4>
+     * This class is thread-safe, so builders used concurrently can share a cache.
+     * The cached rules are never modified.
+     */
+    public static final class RuleCache {
+        /** The expanded rules, keyed by the rule ranges. */
+        private final ConcurrentMap<RuleKey, List<TZRule>> cache = new ConcurrentHashMap<RuleKey, List<TZRule>>();
+
+        /**
+         * Gets the expanded rules of a window, expanding them if not yet cached.
+         *
+         * @param window  the tidied window, not null
+         * @return the rules, not null
+         */
+        List<TZRule> rules(TZWindow window) {
+            RuleKey key = window.ruleKey();
+            List<TZRule> rules = cache.get(key);
+            if (rules == null) {
+                rules = Collections.unmodifiableList(Arrays.asList(window.expandRules()));
+                List<TZRule> existing = cache.putIfAbsent(key, rules);
+                if (existing != null) {
+                    rules = existing;  // expanded concurrently, the lists are equal
+                }
+            }
+            return rules;
+        }
+
+        /**
+         * Gets the number of distinct sets of rules expanded.
+         *
+         * @return the number of entries
+         */
+        public int size() {
+            return cache.size();
+        }
+    }
+
+    /**
+     * The key of a set of rule ranges.
+     */
+    static final class RuleKey {
+        /** The years and fields of the ranges. */
+        private final int[] fields;
+        /** The hash code of the fields. */
+        private final int hash;
+
+        RuleKey(int[] fields) {
+            this.fields = fields;
+            this.hash = Arrays.hashCode(fields);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof RuleKey && Arrays.equals(fields, ((RuleKey) other).fields);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * A rule that applies to each year in a range.
+     */
+    static class TZRuleRange {
+        /** The start year of the range. */
+        private final int startYear;
+        /** The end year of the range, inclusive. */
+        private final int endYear;
+        /** The rule, its year is updated as the range is iterated. */
+        private final TZRule rule;
+
+        /**
+         * Constructor.
+         *
+         * @param rule  the rule for the start year, not null
+         * @param endYear  the end year, inclusive
+         */
+        TZRuleRange(TZRule rule, int endYear) {
+            this.startYear = rule.year;
+            this.endYear = endYear;
+            this.rule = rule;
         }
     }
 
@@ -595,7 +850,7 @@ public class ZoneRulesBuilder {
     /**
      * A definition of the way a local time can be converted to an offset time.
      */
-    class TZRule implements Comparable<TZRule> {
+    static class TZRule implements Comparable<TZRule> {
         private int year;
         private int month;
         private int dayOfMonthIndicator;
@@ -604,6 +859,7 @@ public class ZoneRulesBuilder {
         private boolean timeEndOfDay; // Whether the local time is end of day.
         private TimeDefinition timeDefinition; // The type of the time.
         private int savingAmountSecs; // The amount of the saving to be applied after this point.
+        private long sortKey = NO_SORT_KEY; // The local epoch second of the transition, see sortKey().
 
         /**
          * Constructor.
@@ -632,35 +888,42 @@ public class ZoneRulesBuilder {
         }
 
         /**
-         * Converts this to a transition.
+         * Sets the year, as done when a rule is reused for each year of a range.
          *
-         * @param standardOffset  the active standard offset, not null
-         * @param savingsBeforeSecs  the active savings in seconds
-         * @return the transition, not null
+         * @param year  the year
          */
-        ZoneOffsetTransition toTransition(ZoneOffset standardOffset, int savingsBeforeSecs) {
-            // copy of code in ZoneOffsetTransitionRule to avoid infinite loop
-            LocalDate date = toLocalDate();
-            LocalDateTime ldt = LocalDateTime.of(date, time);
-            ZoneOffset wallOffset = ZoneOffset.ofTotalSeconds(standardOffset.getTotalSeconds() + savingsBeforeSecs);
-            LocalDateTime dt = timeDefinition.createDateTime(ldt, standardOffset, wallOffset);
-            ZoneOffset offsetAfter = ZoneOffset.ofTotalSeconds(standardOffset.getTotalSeconds() + savingAmountSecs);
-            return new ZoneOffsetTransition(dt, wallOffset, offsetAfter);
+        void setYear(int year) {
+            this.year = year;
+            this.sortKey = NO_SORT_KEY;
+        }
+
+        /**
+         * Gets the sort key, computed once for the year.
+         * <p>
+         * The key is the epoch day of the transition date, including the end of
+         * day shift, times the seconds per day plus the second-of-day, so comparing
+         * keys compares both the date and the time without creating a date.
+         *
+         * @return the sort key
+         */
+        private long sortKey() {
+            if (sortKey == NO_SORT_KEY) {
+                sortKey = toEpochDay() * SECONDS_PER_DAY + time.toSecondOfDay();
+            }
+            return sortKey;
         }
 
         /**
          * Returns the apoch second of this rules with the specified
          * active standard offset and active savings
          *
-         * @param standardOffset  the active standard offset, not null
+         * @param standardOffsetSecs  the active standard offset in seconds
          * @param savingsBeforeSecs  the active savings in seconds
          * @return the transition epoch second
          */
-        long toEpochSecond(ZoneOffset standardOffset, int savingsBeforeSecs) {
-            LocalDateTime ldt = LocalDateTime.of(toLocalDate(), time);
-            ZoneOffset wallOffset = ZoneOffset.ofTotalSeconds(standardOffset.getTotalSeconds() + savingsBeforeSecs);
-            return timeDefinition.createDateTime(ldt, standardOffset, wallOffset)
-                                 .toEpochSecond(wallOffset);
+        long toEpochSecond(int standardOffsetSecs, int savingsBeforeSecs) {
+            // the sort key is the local epoch second of the transition
+            return timeDefinition.toEpochSecond(sortKey(), standardOffsetSecs, standardOffsetSecs + savingsBeforeSecs);
         }
 
         /**
@@ -697,6 +960,7 @@ public class ZoneRulesBuilder {
                 }
                 timeEndOfDay = false;
             }
+            sortKey = NO_SORT_KEY;
             // build rule
             return new ZoneOffsetTransitionRule(
                     month, dayOfMonthIndicator, dayOfWeek, time, timeEndOfDay, timeDefinition,
@@ -709,33 +973,26 @@ public class ZoneRulesBuilder {
             int cmp = year - other.year;
             cmp = (cmp == 0 ? month - other.month : cmp);
             if (cmp == 0) {
-                // convert to date to handle dow/domIndicator/timeEndOfDay
-                LocalDate thisDate = toLocalDate();
-                LocalDate otherDate = other.toLocalDate();
-                cmp = thisDate.compareTo(otherDate);
+                // compare the keys to handle dow/domIndicator/timeEndOfDay, then time
+                long thisKey = sortKey();
+                long otherKey = other.sortKey();
+                cmp = (thisKey < otherKey ? -1 : (thisKey > otherKey ? 1 : 0));
             }
-            cmp = (cmp == 0 ? time.compareTo(other.time) : cmp);
             return cmp;
         }
 
-        private LocalDate toLocalDate() {
-            LocalDate date;
+        private long toEpochDay() {
+            long epochDay;
             if (dayOfMonthIndicator < 0) {
                 int monthLen = lengthOfMonth(month, isLeapYear(year));
-                date = LocalDate.of(year, month, monthLen + 1 + dayOfMonthIndicator);
-                if (dayOfWeek != -1) {
-                    date = previousOrSame(date, dayOfWeek);
-                }
+                epochDay = adjustedEpochDay(year, month, monthLen + 1 + dayOfMonthIndicator, dayOfWeek, true);
             } else {
-                date = LocalDate.of(year, month, dayOfMonthIndicator);
-                if (dayOfWeek != -1) {
-                    date = nextOrSame(date, dayOfWeek);
-                }
+                epochDay = adjustedEpochDay(year, month, dayOfMonthIndicator, dayOfWeek, false);
             }
             if (timeEndOfDay) {
-                date = date.plusDays(1);
+                epochDay++;
             }
-            return date;
+            return epochDay;
         }
     }
 
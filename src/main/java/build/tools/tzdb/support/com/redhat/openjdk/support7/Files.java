@@ -19,6 +19,9 @@
 package build.tools.tzdb.support.com.redhat.openjdk.support7;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
@@ -100,15 +103,69 @@ public class Files {
         try {
             byte[] data = new byte[(int) path.getFile().length()];
             fis = new FileInputStream(path.getFile());
-            int res = fis.read(data);
-            if (res != data.length) throw new IOException(
-                    "File read error, expected: [" + data.length + "], read: [" + res +"]");
+            int off = 0;
+            while (off < data.length) {
+                int res = fis.read(data, off, data.length - off);
+                if (res < 0) throw new IOException(
+                        "File read error, expected: [" + data.length + "], read: [" + off +"]");
+                off += res;
+            }
             return data;
         } finally {
             AutoCloseableUtils.closeQuietly(fis);
         }
     }
 
+    /**
+     * Opens a file for streaming line-by-line reading. Not a part of NIO.2.
+     *
+     * <p> The file is memory-mapped and decoded as ISO-8859-1 while it is
+     * read, so neither the file contents nor its lines are copied to the heap.
+     * The file is closed before this method returns, the mapping stays
+     * valid until the reader is garbage collected.
+     *
+     * @param   path
+     *          the path to the file
+     *
+     * @return  a reader positioned before the first line
+     *
+     * @throws  IOException
+     *          if an I/O error occurs opening or mapping the file, or the file
+     *          is larger than {@code 2GB}
+     */
+    public static MappedLineReader newLineReader(Path path) throws IOException {
+        return new MappedLineReader(map(path));
+    }
+
+    /**
+     * Maps a file into memory for reading. Not a part of NIO.2.
+     *
+     * <p> The file is closed before this method returns, the mapping stays
+     * valid until the buffer is garbage collected.
+     *
+     * @param   path
+     *          the path to the file
+     *
+     * @return  a read-only buffer with the file contents
+     *
+     * @throws  IOException
+     *          if an I/O error occurs opening or mapping the file, or the file
+     *          is larger than {@code 2GB}
+     */
+    public static MappedByteBuffer map(Path path) throws IOException {
+        FileInputStream fis = null;
+        try {
+            fis = new FileInputStream(path.getFile());
+            FileChannel channel = fis.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new IOException(
+                    "File too large: [" + path + "], size: [" + size + "]");
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            AutoCloseableUtils.closeQuietly(fis);
+        }
+    }
+
     /**
      * Opens or creates a file, returning an output stream that may be used to
      * write bytes to the file. The resulting stream will not be buffered.
@@ -133,6 +190,49 @@ public class Files {
         return new FileOutputStream(path.getFile());
     }
 
+    /**
+     * Replaces the contents of a file, so that readers see either the old or
+     * the new contents but never a partially written file. Not a part of NIO.2.
+     *
+     * <p> The bytes are written to a temporary file in the same directory,
+     * which is then renamed to the target file. The rename replaces the file
+     * atomically where the platform supports it. Elsewhere, such as on
+     * Windows, the existing file is deleted first.
+     *
+     * @param   path
+     *          the path to the file to replace or create
+     * @param   data
+     *          the bytes to write, from the position up to the limit
+     *
+     * @throws  IOException
+     *          if an I/O error occurs writing or renaming the file
+     */
+    public static void replace(Path path, ByteBuffer data) throws IOException {
+        File target = path.getFile().getAbsoluteFile();
+        File temp = File.createTempFile(target.getName() + ".", ".tmp", target.getParentFile());
+        boolean replaced = false;
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(temp);
+            FileChannel channel = fos.getChannel();
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            fos.close();
+            fos = null;
+            if (!temp.renameTo(target)) {
+                if (!target.delete() || !temp.renameTo(target)) throw new IOException(
+                        "File rename error, from: [" + temp + "], to: [" + target + "]");
+            }
+            replaced = true;
+        } finally {
+            AutoCloseableUtils.closeQuietly(fos);
+            if (!replaced) {
+                temp.delete();
+            }
+        }
+    }
+
     /**
      * Read all lines from a file. This method ensures that the file is
      * closed when all bytes have been read or an I/O error, or other runtime
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2015 Red Hat, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package build.tools.tzdb.support.com.redhat.openjdk.support7;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Streaming ISO-8859-1 line reader over a byte buffer, usually a memory-mapped file.
+ * Not a part of NIO.2, used instead of {@link Files#readAllLines} to avoid
+ * creating a {@code String} for every line of a file.
+ *
+ * <p> The reader itself is the current line: after a successful call to
+ * {@link #readLine()} the {@code CharSequence} methods give a view of the
+ * line, decoding bytes on access. The view is only valid until the next
+ * call to {@code readLine()}.
+ *
+ * <p> Line terminators are recognized in the same way as by
+ * {@link java.io.BufferedReader#readLine()}.
+ */
+public class MappedLineReader implements CharSequence {
+    private final ByteBuffer buffer;
+    private final int limit;
+    private int start;
+    private int end;
+    private int next;
+
+    /**
+     * Constructor
+     *
+     * @param buffer ISO-8859-1 encoded bytes, read from index zero up to its limit
+     */
+    public MappedLineReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.limit = buffer.limit();
+    }
+
+    /**
+     * Advances to the next line.
+     *
+     * @return {@code true} if a line was read, {@code false} at the end of input
+     */
+    public boolean readLine() {
+        if (next >= limit) {
+            return false;
+        }
+        start = next;
+        int i = start;
+        while (i < limit) {
+            byte b = buffer.get(i);
+            if (b == '\n' || b == '\r') {
+                break;
+            }
+            i++;
+        }
+        end = i;
+        if (i < limit && buffer.get(i) == '\r' && i + 1 < limit && buffer.get(i + 1) == '\n') {
+            i++;
+        }
+        next = i + 1;
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int length() {
+        return end - start;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= end - start) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        return (char) (buffer.get(start + index) & 0xff);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CharSequence subSequence(int from, int to) {
+        return toString().substring(from, to);
+    }
+
+    /**
+     * Returns the current line as a string
+     *
+     * @return current line, empty string before the first line is read
+     */
+    @Override
+    public String toString() {
+        char[] chars = new char[end - start];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (buffer.get(start + i) & 0xff);
+        }
+        return new String(chars);
+    }
+}
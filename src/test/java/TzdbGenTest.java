@@ -22,10 +22,23 @@ import org.junit.Test;
 
 import javax.xml.bind.DatatypeConverter;
 import java.io.*;
+import java.net.URISyntaxException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.zone.ZoneRules;
+import java.time.zone.ZoneRulesProvider;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
 import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeSet;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Test for generation of tzdb.dat
@@ -36,12 +49,6 @@ public class TzdbGenTest {
             "northamerica", "southamerica", "backward", "etcetera", "VERSION"};
 
     @Test
-    public void dummy() {
-        // to enable tests comment "System.exit" callse in TzdbZoneRulesCompiler
-        // and uncomment test method annotation
-    }
-
-//    @Test
     public void test() throws NoSuchProviderException, NoSuchAlgorithmException, IOException {
         Assert.assertEquals("2014j fail", "be6d80ad33404b71472c9ebb9582d958f53a57f4", sha1SumForVersion("2014j"));
         Assert.assertEquals("2015a fail", "8abcae52ff2c283e61c29980e7f3cb43543392d1", sha1SumForVersion("2015a"));
@@ -49,23 +56,509 @@ public class TzdbGenTest {
         Assert.assertEquals("2015c fail", "b368182cef7a38cef65213e3535f881960354633", sha1SumForVersion("2015c"));
     }
 
-    private String sha1SumForVersion(String version) throws IOException, NoSuchProviderException, NoSuchAlgorithmException {
+    @Test
+    public void testRegexFields() throws NoSuchProviderException, NoSuchAlgorithmException, IOException {
+        for (String version : new String[]{"2014j", "2015a", "2015b", "2015c"}) {
+            Assert.assertEquals(version + " fail", sha1SumForVersion(version), sha1SumForVersion(version, "-regex"));
+        }
+    }
+
+    @Test
+    public void testThreads() throws NoSuchProviderException, NoSuchAlgorithmException, IOException {
+        Assert.assertEquals("2015c fail", "b368182cef7a38cef65213e3535f881960354633", sha1SumForVersion("2015c", "-threads", "4"));
+    }
+
+    @Test
+    public void testSince() throws NoSuchProviderException, NoSuchAlgorithmException, IOException {
+        File tmpdir = null;
+        try {
+            tmpdir = createTempDir();
+            copyZones("2015c", tmpdir);
+            File full = new File(tmpdir, "full.dat");
+            File since = new File(tmpdir, "since.dat");
+            Assert.assertEquals("2015c exit status", 0, TzdbZoneRulesCompiler.run(new String[]{
+                    "-srcdir", tmpdir.getAbsolutePath(),
+                    "-dstfile", full.getAbsolutePath()
+            }));
+            Assert.assertEquals("2015c exit status", 0, TzdbZoneRulesCompiler.run(new String[]{
+                    "-since", "1970",
+                    "-srcdir", tmpdir.getAbsolutePath(),
+                    "-dstfile", since.getAbsolutePath()
+            }));
+            Assert.assertTrue("2015c size", since.length() < full.length());
+            // the same offsets and DST flags from the cutoff, in TimeZone too
+            Assert.assertEquals("2015c fail", probeZones(full, "1970", "2040"), probeZones(since, "1970", "2040"));
+            // out of range, only the help is printed
+            File invalid = new File(tmpdir, "invalid.dat");
+            Assert.assertEquals("2015c exit status", 0, TzdbZoneRulesCompiler.run(new String[]{
+                    "-since", "1000000000",
+                    "-srcdir", tmpdir.getAbsolutePath(),
+                    "-dstfile", invalid.getAbsolutePath()
+            }));
+            Assert.assertFalse("2015c invalid output", invalid.exists());
+        } finally {
+            deleteRecursive(tmpdir);
+        }
+        Assert.assertEquals("2015c fail", "b368182cef7a38cef65213e3535f881960354633", sha1SumForVersion("2015c", "-since", "1800"));
+    }
+
+    @Test
+    public void testExpandUntil() throws NoSuchProviderException, NoSuchAlgorithmException, IOException {
+        Assert.assertEquals("2015c fail", "cbb03be09fde3c167b76dfd70b1c478b86ab5dea", sha1SumForVersion("2015c", "-expand-until", "2037"));
+        Assert.assertEquals("2015c fail", "b368182cef7a38cef65213e3535f881960354633", sha1SumForVersion("2015c", "-expand-until", "1900"));
+        File tmpdir = null;
+        try {
+            tmpdir = createTempDir();
+            copyZones("2015c", tmpdir);
+            File result = new File(tmpdir, "tzdata.db");
+            // out of range, only the help is printed
+            Assert.assertEquals("2015c exit status", 0, TzdbZoneRulesCompiler.run(new String[]{
+                    "-expand-until", "1000000000",
+                    "-srcdir", tmpdir.getAbsolutePath(),
+                    "-dstfile", result.getAbsolutePath()
+            }));
+            Assert.assertFalse("2015c invalid output", result.exists());
+            // in range, but too many transitions for the file format
+            for (String year : new String[]{"999999999", "9999"}) {
+                Assert.assertEquals("2015c exit status", 1, TzdbZoneRulesCompiler.run(new String[]{
+                        "-expand-until", year,
+                        "-srcdir", tmpdir.getAbsolutePath(),
+                        "-dstfile", result.getAbsolutePath()
+                }));
+                Assert.assertFalse("2015c too large output", result.exists());
+            }
+        } finally {
+            deleteRecursive(tmpdir);
+        }
+    }
+
+    @Test
+    public void testRegionFilter() throws NoSuchProviderException, NoSuchAlgorithmException, IOException {
+        File tmpdir = null;
+        try {
+            tmpdir = createTempDir();
+            File list = new File(tmpdir, "regions.txt");
+            OutputStream os = new FileOutputStream(list);
+            os.write("# zones\nEurope/Berlin\n  Asia/Tokyo # jp\n\nUS/Eastern\nAmerica/New_York\n".getBytes("US-ASCII"));
+            os.close();
+            Assert.assertEquals("2015c fail", "8be3972250a3a6b73e094768ddf698e89b6d94c9", sha1SumForVersion("2015c",
+                    "-regionlist", list.getAbsolutePath(), "-include", "Europe/*", "-include", "Asia/Nicosia",
+                    "-exclude", "Europe/Kiev", "-exclude", "Europe/V*"));
+            // Europe/Nicosia links to Asia/Nicosia
+            copyZones("2015c", tmpdir);
+            int status = TzdbZoneRulesCompiler.run(new String[]{
+                    "-include", "Europe/*",
+                    "-srcdir", tmpdir.getAbsolutePath()
+            });
+            Assert.assertEquals("2015c exit status", 1, status);
+        } finally {
+            deleteRecursive(tmpdir);
+        }
+    }
+
+    @Test
+    public void testCluster() throws NoSuchProviderException, NoSuchAlgorithmException, IOException {
+        Assert.assertEquals("2015c fail", "3051ddf11c8452ee92f34d60bed4f525313d2344", sha1SumForVersion("2015c", "-cluster", "2016-2037", "-clustershare"));
+        File tmpdir = null;
+        try {
+            tmpdir = createTempDir();
+            copyZones("2015c", tmpdir);
+            int status = TzdbZoneRulesCompiler.run(new String[]{
+                    "-cluster", "2016-2037",
+                    "-srcdir", tmpdir.getAbsolutePath()
+            });
+            Assert.assertEquals("2015c exit status", 0, status);
+            Assert.assertFalse("2015c analysis output", new File(tmpdir, "tzdb.dat").exists());
+        } finally {
+            deleteRecursive(tmpdir);
+        }
+    }
+
+    @Test
+    public void testSrcArchive() throws NoSuchProviderException, NoSuchAlgorithmException, IOException {
+        File tmpdir = null;
+        try {
+            tmpdir = createTempDir();
+            File archive = new File(tmpdir, "tzdata2015c.tar.gz");
+            writeTarGz("2015c", archive);
+            File result = new File(tmpdir, "tzdata.db");
+            int status = TzdbZoneRulesCompiler.run(new String[]{
+                    "-srcarchive", archive.getAbsolutePath(),
+                    "-dstfile", result.getAbsolutePath()
+            });
+            Assert.assertEquals("2015c exit status", 0, status);
+            Assert.assertEquals("2015c fail", "b368182cef7a38cef65213e3535f881960354633", sha1SumFromFile(result));
+        } finally {
+            deleteRecursive(tmpdir);
+        }
+    }
+
+    @Test
+    public void testCompactSource() throws NoSuchProviderException, NoSuchAlgorithmException, IOException {
+        File tmpdir = null;
+        try {
+            tmpdir = createTempDir();
+            copyResource("/2015c-zi/tzdata.zi", new File(tmpdir, "tzdata.zi"));
+            File result = new File(tmpdir, "tzdata.db");
+            int status = TzdbZoneRulesCompiler.run(new String[]{
+                    "-srcdir", tmpdir.getAbsolutePath(),
+                    "-dstfile", result.getAbsolutePath(),
+                    "tzdata.zi"
+            });
+            Assert.assertEquals("2015c exit status", 0, status);
+            Assert.assertEquals("2015c fail", "b368182cef7a38cef65213e3535f881960354633", sha1SumFromFile(result));
+        } finally {
+            deleteRecursive(tmpdir);
+        }
+    }
+
+    @Test
+    public void testShortIdLinks() throws NoSuchProviderException, NoSuchAlgorithmException, IOException {
+        File tmpdir = null;
+        try {
+            tmpdir = createTempDir();
+            File source = new File(tmpdir, "tzdata.zi");
+            copyResource("/2015c-zi/tzdata.zi", source);
+            // EST, MST and HST are links since tzdata 2024b
+            StringBuilder sb = new StringBuilder();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(source), "US-ASCII"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.equals("Z EST -5 - EST")) {
+                        line = "L America/Panama EST";
+                    } else if (line.equals("Z MST -7 - MST")) {
+                        line = "L America/Phoenix MST";
+                    } else if (line.equals("Z HST -10 - HST")) {
+                        line = "L Pacific/Honolulu HST";
+                    }
+                    sb.append(line).append('\n');
+                }
+            } finally {
+                closeQuietly(reader);
+            }
+            OutputStream os = new FileOutputStream(source);
+            try {
+                os.write(sb.toString().getBytes("US-ASCII"));
+            } finally {
+                closeQuietly(os);
+            }
+            File result = new File(tmpdir, "tzdata.db");
+            int status = TzdbZoneRulesCompiler.run(new String[]{
+                    "-srcdir", tmpdir.getAbsolutePath(),
+                    "-dstfile", result.getAbsolutePath(),
+                    "tzdata.zi"
+            });
+            Assert.assertEquals("2015c exit status", 0, status);
+            // the short IDs are left out either way
+            Assert.assertEquals("2015c fail", "b368182cef7a38cef65213e3535f881960354633", sha1SumFromFile(result));
+        } finally {
+            deleteRecursive(tmpdir);
+        }
+    }
+
+    @Test
+    public void testParseCache() throws NoSuchProviderException, NoSuchAlgorithmException, IOException {
+        File tmpdir = null;
+        try {
+            tmpdir = createTempDir();
+            copyZones("2015c", tmpdir);
+            File result = new File(tmpdir, "tzdata.db");
+            String[] args = new String[]{
+                    "-cache",
+                    "-srcdir", tmpdir.getAbsolutePath(),
+                    "-dstfile", result.getAbsolutePath()
+            };
+            // cold, warm, then with one changed file
+            for (int i = 0; i < 3; i++) {
+                if (2 == i) {
+                    OutputStream os = new FileOutputStream(new File(tmpdir, "europe"), true);
+                    os.write("# changed\n".getBytes("US-ASCII"));
+                    os.close();
+                }
+                Assert.assertEquals("2015c exit status", 0, TzdbZoneRulesCompiler.run(args));
+                Assert.assertTrue("2015c cache", new File(tmpdir, "tzdb.cache").isFile());
+                Assert.assertEquals("2015c fail", "b368182cef7a38cef65213e3535f881960354633", sha1SumFromFile(result));
+            }
+        } finally {
+            deleteRecursive(tmpdir);
+        }
+        // several sources sharing one cache file
+        try {
+            tmpdir = createTempDir();
+            File archiveB = new File(tmpdir, "tzdata2015b.tar.gz");
+            File archiveC = new File(tmpdir, "tzdata2015c.tar.gz");
+            writeTarGz("2015b", archiveB);
+            writeTarGz("2015c", archiveC);
+            File result = new File(tmpdir, "tzdata.db");
+            String[] args = new String[]{
+                    "-cache",
+                    "-srcarchive", archiveB.getAbsolutePath(),
+                    "-srcarchive", archiveC.getAbsolutePath(),
+                    "-dstfile", result.getAbsolutePath()
+            };
+            File single = new File(tmpdir, "2015c.dat");
+            Assert.assertEquals("2015c exit status", 0, TzdbZoneRulesCompiler.run(new String[]{
+                    "-srcarchive", archiveC.getAbsolutePath(),
+                    "-dstfile", single.getAbsolutePath()
+            }));
+            String expected = null;
+            for (int i = 0; i < 2; i++) {
+                Assert.assertEquals("multi-version exit status", 0, TzdbZoneRulesCompiler.run(args));
+                if (expected == null) {
+                    Assert.assertEquals("multi-version fail", probeZones(single, "1900", "2040"),
+                            probeZones(result, "1900", "2040"));
+                    expected = sha1SumFromFile(result);
+                } else {
+                    Assert.assertEquals("multi-version cached fail", expected, sha1SumFromFile(result));
+                }
+                // the 15 distinct files of both versions
+                DataInputStream in = new DataInputStream(new FileInputStream(new File(tmpdir, "tzdb.cache")));
+                try {
+                    in.readByte();
+                    in.readUTF();
+                    Assert.assertEquals("multi-version cache entries", 15, in.readInt());
+                } finally {
+                    closeQuietly(in);
+                }
+            }
+        } finally {
+            deleteRecursive(tmpdir);
+        }
+    }
+
+    @Test
+    public void testMultiVersion() throws NoSuchProviderException, NoSuchAlgorithmException, IOException {
+        File tmpdir = null;
+        try {
+            tmpdir = createTempDir();
+            File result = new File(tmpdir, "tzdata.db");
+            List<String> args = new ArrayList<String>(Arrays.asList("-threads", "4", "-dstfile", result.getAbsolutePath()));
+            for (String version : new String[]{"2014j", "2015a", "2015b", "2015c"}) {
+                File srcdir = new File(tmpdir, version);
+                Assert.assertTrue(srcdir.mkdir());
+                copyZones(version, srcdir);
+                args.add("-srcdir");
+                args.add(srcdir.getAbsolutePath());
+            }
+            int status = TzdbZoneRulesCompiler.run(args.toArray(new String[args.size()]));
+            Assert.assertEquals("multi-version exit status", 0, status);
+            // the JDK reads the current version
+            Assert.assertEquals("multi-version fail", Arrays.asList(
+                    "version 2015c",
+                    "America/New_York tz -18000/false @1425798000 -14400/true @1446357600 -18000/false" +
+                            " jt -18000/false @1425798000 -14400/true @1446357600 -18000/false",
+                    "Asia/Tokyo tz 32400/false jt 32400/false",
+                    "Europe/Paris tz 3600/false @1427590800 7200/true @1445734800 3600/false" +
+                            " jt 3600/false @1427590800 7200/true @1445734800 3600/false"),
+                    probeZones(result, "2015", "2016", "America/New_York", "Asia/Tokyo", "Europe/Paris"));
+            File single = new File(tmpdir, "2015c.dat");
+            Assert.assertEquals("2015c exit status", 0, TzdbZoneRulesCompiler.run(new String[]{
+                    "-srcdir", new File(tmpdir, "2015c").getAbsolutePath(),
+                    "-dstfile", single.getAbsolutePath()
+            }));
+            Assert.assertEquals("multi-version zones fail", probeZones(single, "1900", "2040"),
+                    probeZones(result, "1900", "2040"));
+        } finally {
+            deleteRecursive(tmpdir);
+        }
+    }
+
+    @Test
+    public void testDelta() throws NoSuchProviderException, NoSuchAlgorithmException, IOException {
+        File tmpdir = null;
+        try {
+            tmpdir = createTempDir();
+            File olddir = new File(tmpdir, "2015b");
+            File newdir = new File(tmpdir, "2015c");
+            Assert.assertTrue(olddir.mkdir());
+            Assert.assertTrue(newdir.mkdir());
+            copyZones("2015b", olddir);
+            copyZones("2015c", newdir);
+            File oldResult = new File(olddir, "tzdb.dat");
+            File newResult = new File(newdir, "tzdb.dat");
+            Assert.assertEquals("2015b exit status", 0, TzdbZoneRulesCompiler.run(new String[]{
+                    "-srcdir", olddir.getAbsolutePath()
+            }));
+            Assert.assertEquals("2015c exit status", 0, TzdbZoneRulesCompiler.run(new String[]{
+                    "-srcdir", newdir.getAbsolutePath(),
+                    "-deltafrom", oldResult.getAbsolutePath()
+            }));
+            File delta = new File(newdir, "tzdb.dat.delta");
+            Assert.assertTrue("delta size", delta.length() < newResult.length() / 4);
+            int status = TzdbZoneRulesCompiler.run(new String[]{
+                    "-applydelta", delta.getAbsolutePath(),
+                    "-dstfile", oldResult.getAbsolutePath()
+            });
+            Assert.assertEquals("apply exit status", 0, status);
+            Assert.assertEquals("2015c fail", "b368182cef7a38cef65213e3535f881960354633", sha1SumFromFile(oldResult));
+            // the delta no longer matches the patched file
+            Assert.assertEquals("reapply exit status", 1, TzdbZoneRulesCompiler.run(new String[]{
+                    "-applydelta", delta.getAbsolutePath(),
+                    "-dstfile", oldResult.getAbsolutePath()
+            }));
+            // between files of several versions, each with its own alias table
+            File olderdir = new File(tmpdir, "2015a");
+            Assert.assertTrue(olderdir.mkdir());
+            copyZones("2015a", olderdir);
+            File oldMulti = new File(tmpdir, "old.dat");
+            File newMulti = new File(tmpdir, "new.dat");
+            Assert.assertEquals("multi-version exit status", 0, TzdbZoneRulesCompiler.run(new String[]{
+                    "-srcdir", olderdir.getAbsolutePath(),
+                    "-srcdir", olddir.getAbsolutePath(),
+                    "-dstfile", oldMulti.getAbsolutePath()
+            }));
+            Assert.assertEquals("multi-version exit status", 0, TzdbZoneRulesCompiler.run(new String[]{
+                    "-srcdir", olddir.getAbsolutePath(),
+                    "-srcdir", newdir.getAbsolutePath(),
+                    "-dstfile", newMulti.getAbsolutePath(),
+                    "-deltafrom", oldMulti.getAbsolutePath()
+            }));
+            String expected = sha1SumFromFile(newMulti);
+            Assert.assertEquals("multi-version apply exit status", 0, TzdbZoneRulesCompiler.run(new String[]{
+                    "-applydelta", new File(tmpdir, "new.dat.delta").getAbsolutePath(),
+                    "-dstfile", oldMulti.getAbsolutePath()
+            }));
+            Assert.assertEquals("multi-version fail", expected, sha1SumFromFile(oldMulti));
+        } finally {
+            deleteRecursive(tmpdir);
+        }
+    }
+
+    private String sha1SumForVersion(String version, String... options) throws IOException, NoSuchProviderException, NoSuchAlgorithmException {
         File tmpdir = null;
         try {
             tmpdir = createTempDir();
             copyZones(version, tmpdir);
             File result = new File(tmpdir, "tzdata.db");
-            TzdbZoneRulesCompiler.main(new String[]{
+            List<String> args = new ArrayList<String>(Arrays.asList(options));
+            args.addAll(Arrays.asList(
                     "-srcdir", tmpdir.getAbsolutePath(),
                     "-dstfile", result.getAbsolutePath(),
                     "-verbose"
-            });
+            ));
+            int status = TzdbZoneRulesCompiler.run(args.toArray(new String[args.size()]));
+            Assert.assertEquals(version + " exit status", 0, status);
             return sha1SumFromFile(result);
         } finally {
             deleteRecursive(tmpdir);
         }
     }
 
+    /**
+     * Loads a tzdb.dat file with the JDK, through both TimeZone and
+     * ZoneRulesProvider, in a child JVM whose java.home only holds the file,
+     * and lists the offset and DST changes of regions.
+     */
+    private List<String> probeZones(File tzdbFile, String fromYear, String toYear, String... regionIds)
+            throws IOException {
+        File home = createTempDir();
+        try {
+            File lib = new File(home, "lib");
+            Assert.assertTrue(lib.mkdir());
+            copyFile(tzdbFile, new File(lib, "tzdb.dat"));
+            File classes;
+            try {
+                classes = new File(TzdbGenTest.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            } catch (URISyntaxException e) {
+                throw new IOException(e);
+            }
+            List<String> command = new ArrayList<String>(Arrays.asList(
+                    new File(System.getProperty("java.home"), "bin/java").getAbsolutePath(),
+                    "-Djava.home=" + home.getAbsolutePath(),
+                    "-cp", classes.getAbsolutePath(),
+                    ZoneProbe.class.getName(), fromYear, toYear));
+            command.addAll(Arrays.asList(regionIds));
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            List<String> lines = new ArrayList<String>();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines.add(line);
+                }
+            } finally {
+                closeQuietly(reader);
+            }
+            try {
+                Assert.assertEquals("probe failed: " + lines, 0, process.waitFor());
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return lines;
+        } finally {
+            deleteRecursive(home);
+        }
+    }
+
+    /**
+     * Prints the version, then for each region the offset and DST flag at the
+     * start of a range of years and each change until its end, as seen by
+     * TimeZone and by ZoneRules. Without region IDs, all the regions known
+     * to both are printed.
+     */
+    public static class ZoneProbe {
+
+        private static final long STEP = 24 * 3600;
+
+        public static void main(String[] args) {
+            long from = Instant.parse(args[0] + "-01-01T00:00:00Z").getEpochSecond();
+            long to = Instant.parse(args[1] + "-01-01T00:00:00Z").getEpochSecond();
+            Set<String> regionIds = new TreeSet<String>(Arrays.asList(args).subList(2, args.length));
+            if (regionIds.isEmpty()) {
+                regionIds.addAll(Arrays.asList(TimeZone.getAvailableIDs()));
+                regionIds.retainAll(ZoneId.getAvailableZoneIds());
+            }
+            System.out.println("version " + ZoneRulesProvider.getVersions(regionIds.iterator().next()).lastKey());
+            for (String regionId : regionIds) {
+                TimeZone zone = TimeZone.getTimeZone(regionId);
+                ZoneRules rules = ZoneId.of(regionId).getRules();
+                System.out.println(regionId + " tz" + changes(zone, null, from, to) + " jt" + changes(null, rules, from, to));
+            }
+        }
+
+        private static String changes(TimeZone zone, ZoneRules rules, long from, long to) {
+            StringBuilder sb = new StringBuilder();
+            long last = state(zone, rules, from);
+            append(sb, last);
+            for (long t = from; t < to; t += STEP) {
+                long next = Math.min(t + STEP, to);
+                while (last != state(zone, rules, next)) {
+                    // the first second after t with another state
+                    long lo = t;
+                    long hi = next;
+                    while (hi - lo > 1) {
+                        long mid = lo + (hi - lo) / 2;
+                        if (last == state(zone, rules, mid)) {
+                            lo = mid;
+                        } else {
+                            hi = mid;
+                        }
+                    }
+                    last = state(zone, rules, hi);
+                    sb.append(" @").append(hi);
+                    append(sb, last);
+                    t = hi;
+                }
+            }
+            return sb.toString();
+        }
+
+        private static void append(StringBuilder sb, long state) {
+            sb.append(' ').append(state >> 1).append('/').append((state & 1) != 0);
+        }
+
+        /** The offset in seconds and the DST flag, in the lowest bit. */
+        private static long state(TimeZone zone, ZoneRules rules, long epochSecond) {
+            if (zone != null) {
+                long millis = epochSecond * 1000;
+                return (zone.getOffset(millis) / 1000) * 2L + (zone.inDaylightTime(new Date(millis)) ? 1 : 0);
+            }
+            Instant instant = Instant.ofEpochSecond(epochSecond);
+            return rules.getOffset(instant).getTotalSeconds() * 2L + (rules.isDaylightSavings(instant) ? 1 : 0);
+        }
+    }
+
     private void copyZones(String version, File tmpdir) {
         for (String na : ZONES) {
             String path = "/" + version + "/" + na;
@@ -74,6 +567,24 @@ public class TzdbGenTest {
         }
     }
 
+    private void copyFile(File infile, File outfile) throws IOException {
+        InputStream is = new FileInputStream(infile);
+        try {
+            OutputStream os = new FileOutputStream(outfile);
+            try {
+                byte[] buf = new byte[4096];
+                int read;
+                while ((read = is.read(buf)) != -1) {
+                    os.write(buf, 0, read);
+                }
+            } finally {
+                closeQuietly(os);
+            }
+        } finally {
+            closeQuietly(is);
+        }
+    }
+
     private void copyResource(String path, File outfile) {
         InputStream is = null;
         OutputStream os = null;
@@ -93,6 +604,36 @@ public class TzdbGenTest {
         }
     }
 
+    // test-only method, writes the bare minimum of the ustar format
+    private void writeTarGz(String version, File outfile) throws IOException {
+        OutputStream os = null;
+        try {
+            os = new GZIPOutputStream(new FileOutputStream(outfile));
+            for (String na : ZONES) {
+                ByteArrayOutputStream data = new ByteArrayOutputStream();
+                InputStream is = TzdbGenTest.class.getResourceAsStream("/" + version + "/" + na);
+                byte[] buf = new byte[4096];
+                int read;
+                while ((read = is.read(buf)) != -1) {
+                    data.write(buf, 0, read);
+                }
+                is.close();
+                byte[] header = new byte[512];
+                byte[] name = ("./" + na).getBytes("US-ASCII");
+                System.arraycopy(name, 0, header, 0, name.length);
+                byte[] size = String.format("%011o", data.size()).getBytes("US-ASCII");
+                System.arraycopy(size, 0, header, 124, size.length);
+                header[156] = '0';
+                os.write(header);
+                data.writeTo(os);
+                os.write(new byte[(512 - data.size() % 512) % 512]);
+            }
+            os.write(new byte[1024]);
+        } finally {
+            closeQuietly(os);
+        }
+    }
+
     private String sha1SumFromFile(File file) throws NoSuchProviderException, NoSuchAlgorithmException, IOException {
         FileInputStream fis = null;
         byte[] data;